@@ -0,0 +1,30 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * PixelSource over a BufferedImage, the JVM counterpart of the Bitmap
+ * adapter in ImageRaster.
+ */
+final class BufferedImagePixels implements PixelSource {
+    private final BufferedImage mImage;
+
+    BufferedImagePixels(BufferedImage image) {
+        mImage = image;
+    }
+
+    @Override
+    public int getWidth() {
+        return mImage.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mImage.getHeight();
+    }
+
+    @Override
+    public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+        mImage.getRGB(x, y, width, height, pixels, offset, stride);
+    }
+}
@@ -0,0 +1,62 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The byte marshalling of writeData and the label path: a Uint8List taken
+ * as is, a List<int> narrowed from boxed Integers, and the gprinter
+ * Vector<Byte> copied into a byte[].
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ByteConversionBenchmark {
+    @Param({"1024", "65536"})
+    public int size;
+
+    private byte[] bytes;
+    private List<Integer> ints;
+    private Vector<Byte> vector;
+
+    @Setup
+    public void setUp() {
+        bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        ints = Fixtures.intList(bytes);
+        vector = new Vector<>(size);
+        for (byte b : bytes) vector.add(b);
+    }
+
+    @Benchmark
+    public byte[] uint8List() {
+        return PrintContent.toByteArray(bytes);
+    }
+
+    @Benchmark
+    public byte[] intList() {
+        return PrintContent.toByteArray(ints);
+    }
+
+    @Benchmark
+    public byte[] vectorToBytes() {
+        return PrintContent.toBytes(vector);
+    }
+}
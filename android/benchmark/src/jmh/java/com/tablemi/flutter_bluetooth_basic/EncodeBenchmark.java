@@ -0,0 +1,78 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receipt and label encoding as run for every print job. The receipt with
+ * a logo hits the raster cache after the first call, as repeated receipts
+ * do on a device; RasterBenchmark covers the uncached image path.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncodeBenchmark {
+    @Param({"10", "50"})
+    public int items;
+
+    private Map<String, Object> config;
+    private List<Map<String, Object>> receipt;
+    private List<Map<String, Object>> receiptWithLogo;
+    private Map<String, Object> labelConfig;
+    private List<Map<String, Object>> label;
+
+    @Setup
+    public void setUp() {
+        config = new HashMap<>();
+        receipt = Fixtures.receipt(items, null);
+        receiptWithLogo = Fixtures.receipt(items, Fixtures.base64(Fixtures.png(Fixtures.logo(576, 200))));
+        labelConfig = Fixtures.labelConfig();
+        label = Fixtures.label();
+    }
+
+    @Benchmark
+    public byte[] mapToReceipt() {
+        return PrintContent.mapToReceipt(config, receipt);
+    }
+
+    @Benchmark
+    public byte[] mapToReceiptWithLogo() {
+        return PrintContent.mapToReceipt(config, receiptWithLogo);
+    }
+
+    @Benchmark
+    public Vector<Byte> mapToLabel() {
+        return PrintContent.mapToLabel(labelConfig, label);
+    }
+
+    /**
+     * mapToLabel plus the Vector to byte[] copy done before every write.
+     */
+    @Benchmark
+    public byte[] mapToLabelBytes() {
+        return PrintContent.toBytes(PrintContent.mapToLabel(labelConfig, label));
+    }
+
+    @Benchmark
+    public byte[] mapToCPCL() {
+        return PrintContent.mapToCPCL(config, receipt);
+    }
+}
@@ -0,0 +1,163 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Receipts, labels and images shaped like the ones the Dart side sends:
+ * line maps as produced by LineText.toJson and Base64 PNG content.
+ */
+final class Fixtures {
+    private static final String[] ITEMS = {
+            "宫保鸡丁", "Cappuccino grande", "鱼香肉丝 (微辣)", "Club sandwich", "酸辣汤", "Sparkling water 0.5l"
+    };
+
+    private Fixtures() {
+    }
+
+    static Map<String, Object> line(String type, String content, int align, int weight, int width, int height) {
+        Map<String, Object> m = new HashMap<>();
+        m.put("type", type);
+        m.put("content", content);
+        m.put("size", 0);
+        m.put("align", align);
+        m.put("weight", weight);
+        m.put("width", width);
+        m.put("height", height);
+        m.put("underline", 0);
+        m.put("linefeed", 1);
+        m.put("x", 0);
+        m.put("y", 0);
+        return m;
+    }
+
+    static Map<String, Object> text(String content) {
+        return line("text", content, 0, 0, 0, 0);
+    }
+
+    /**
+     * A till receipt: header, {@code items} item lines, totals, a barcode
+     * and a QR code, optionally preceded by a logo image.
+     */
+    static List<Map<String, Object>> receipt(int items, String logo) {
+        List<Map<String, Object>> list = new ArrayList<>();
+        if (logo != null) list.add(line("image", logo, 1, 0, 0, 0));
+        list.add(line("text", "欢迎光临 Tablemi Bistro", 1, 1, 16, 1));
+        list.add(text("Table 12    Guests 4    Server Anna"));
+        list.add(text("2024-05-18 19:42    Order #004711"));
+        list.add(text("--------------------------------"));
+        for (int i = 0; i < items; i++) {
+            String name = ITEMS[i % ITEMS.length];
+            list.add(text(String.format("%-20s x%d %8.2f", name, 1 + i % 3, 3.5 + i * 1.25)));
+        }
+        list.add(text("--------------------------------"));
+        list.add(line("text", "合计 Total            128.50", 2, 1, 0, 1));
+        list.add(text("VAT 19%                   20.52"));
+        list.add(line("barcode", "004711202405181942", 1, 0, 0, 0));
+        list.add(line("qrcode", "https://tablemi.example/receipt/004711?sig=8f2c1d", 1, 0, 0, 0));
+        list.add(line("text", "谢谢惠顾，欢迎再次光临", 1, 0, 0, 0));
+        return list;
+    }
+
+    /**
+     * A 60x40 mm shipping label at 203 dpi.
+     */
+    static List<Map<String, Object>> label() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        list.add(labelLine("text", "收件人: 张三 138****5678", 20, 20));
+        list.add(labelLine("text", "上海市浦东新区世纪大道 100 号", 20, 60));
+        list.add(labelLine("text", "SKU 4006381333931  Qty 2", 20, 100));
+        list.add(labelLine("barcode", "4006381333931", 20, 140));
+        list.add(labelLine("qrcode", "https://tablemi.example/p/4006381333931", 300, 20));
+        return list;
+    }
+
+    private static Map<String, Object> labelLine(String type, String content, int x, int y) {
+        Map<String, Object> m = new HashMap<>();
+        m.put("type", type);
+        m.put("content", content);
+        m.put("x", x);
+        m.put("y", y);
+        return m;
+    }
+
+    static Map<String, Object> labelConfig() {
+        Map<String, Object> config = new HashMap<>();
+        config.put("width", 60);
+        config.put("height", 40);
+        config.put("gap", 2);
+        return config;
+    }
+
+    /**
+     * A logo with a gradient, text and sharp edges, so every dither mode
+     * has real work to do.
+     */
+    static BufferedImage logo(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setPaint(new GradientPaint(0, 0, Color.WHITE, width, height, Color.DARK_GRAY));
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLACK);
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, height / 4));
+        g.drawString("TABLEMI", width / 10, height / 2);
+        Random random = new Random(42);
+        for (int i = 0; i < 40; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), 160));
+            g.fillOval(random.nextInt(width), random.nextInt(height), width / 12, height / 12);
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * A half-size logo centered on white paper, with the blank margins and
+     * spacing a receipt header typically has.
+     */
+    static BufferedImage paddedLogo(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.drawImage(logo(width / 2, height / 2), width / 4, height / 4, null);
+        g.dispose();
+        return image;
+    }
+
+    static byte[] png(BufferedImage image) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String base64(byte[] bytes) {
+        return java.util.Base64.getEncoder().encodeToString(bytes);
+    }
+
+    /**
+     * A payload as a List<int> from Dart arrives: boxed Integers.
+     */
+    static List<Integer> intList(byte[] bytes) {
+        List<Integer> list = new ArrayList<>(bytes.length);
+        for (byte b : bytes) list.add(b & 0xFF);
+        return list;
+    }
+}
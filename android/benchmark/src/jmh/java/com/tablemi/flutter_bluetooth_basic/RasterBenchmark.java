@@ -0,0 +1,75 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The uncached image path. rasterize measures RasterEngine alone over a
+ * PixelSource; decodeAndRasterize adds PNG decoding and scaling, which on
+ * the JVM goes through ImageIO rather than the Android decoder, so only
+ * its allocation profile carries over to devices. encodeBands and
+ * encodeCompact compare plain and compacted GS v 0 bands of a logo with
+ * white margins.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RasterBenchmark {
+    @Param({"threshold", "ordered", "floyd"})
+    public String dither;
+
+    @Param({"384", "576"})
+    public int width;
+
+    private int mode;
+    private PixelSource pixels;
+    private byte[] png;
+    private Raster raster;
+
+    @Setup
+    public void setUp() {
+        mode = RasterEngine.parseMode(dither);
+        pixels = new BufferedImagePixels(Fixtures.logo(width, width / 2));
+        png = Fixtures.png(Fixtures.logo(width * 2, width));
+        raster = RasterEngine.rasterize(new BufferedImagePixels(Fixtures.paddedLogo(width, width / 2)), mode,
+                RasterEngine.DEFAULT_THRESHOLD);
+    }
+
+    @Benchmark
+    public Raster rasterize() {
+        return RasterEngine.rasterize(pixels, mode, RasterEngine.DEFAULT_THRESHOLD);
+    }
+
+    @Benchmark
+    public Raster decodeAndRasterize() {
+        return ImageRaster.rasterize(png, width, mode, RasterEngine.DEFAULT_THRESHOLD);
+    }
+
+    @Benchmark
+    public int encodeBands() {
+        EscEncoder esc = new EscEncoder();
+        esc.initializePrinter().rasterImage(raster, 0, 4096 / raster.widthBytes);
+        return esc.getBuffer().size();
+    }
+
+    @Benchmark
+    public int encodeCompact() {
+        EscEncoder esc = new EscEncoder();
+        esc.initializePrinter().rasterImageCompact(raster, 0, 4096 / raster.widthBytes);
+        return esc.getBuffer().size();
+    }
+}
@@ -0,0 +1,66 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of one receipt text element: the text encoder against the
+ * String.getBytes it replaced, for ASCII, Chinese and Western text, the
+ * last one across CP858 and GB18030.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextBenchmark {
+    private static final Charset GB18030 = Charset.forName("GB18030");
+
+    @Param({"Total amount due ........ 12.50 EUR", "合计 Total 12.50 元 谢谢惠顾", "Crème brûlée 2x 5,00 €"})
+    public String text;
+
+    private PrintBuffer buffer;
+    private EscEncoder esc;
+    private EscEncoder western;
+
+    @Setup
+    public void setUp() {
+        buffer = new PrintBuffer(1 << 16);
+        esc = new EscEncoder(buffer);
+        western = new EscEncoder(buffer).setCodePages(new CodePage[]{CodePage.forName("CP858"), CodePage.GB18030});
+    }
+
+    @Benchmark
+    public int getBytes() {
+        buffer.reset();
+        buffer.write(text.getBytes(GB18030));
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int textEncoder() {
+        buffer.reset();
+        esc.text(text);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int textEncoderCodePages() {
+        buffer.reset();
+        western.initializePrinter().text(text);
+        return buffer.size();
+    }
+}
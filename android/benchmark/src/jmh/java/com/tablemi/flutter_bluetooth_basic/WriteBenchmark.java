@@ -0,0 +1,59 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to push an encoded receipt through the chunked writer over a
+ * loopback link, unlimited and throttled to a slow SPP printer. The write
+ * profile starts from its defaults each iteration, so the throttled case
+ * includes the pacing the writer learns while the job runs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+    @Param({"0", "10240"})
+    public int bytesPerSecond;
+
+    @Param({"10", "50"})
+    public int items;
+
+    private byte[] receipt;
+    private LoopbackTransport transport;
+    private ChunkedWriter writer;
+
+    @Setup
+    public void setUp() throws Exception {
+        receipt = PrintContent.mapToReceipt(new HashMap<>(), Fixtures.receipt(items, null));
+        transport = new LoopbackTransport(bytesPerSecond);
+        transport.connect(0);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetProfile() {
+        writer = new ChunkedWriter(new WriteProfile());
+    }
+
+    @Benchmark
+    public long writeReceipt() throws Exception {
+        writer.write(transport, receipt);
+        return transport.getBytesWritten();
+    }
+}
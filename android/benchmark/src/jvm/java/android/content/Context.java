@@ -0,0 +1,15 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM stand-in for the part of android.content.Context that the encoders
+ * reference; benchmarks never attach one.
+ */
+public abstract class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+
+    public abstract File getFilesDir();
+}
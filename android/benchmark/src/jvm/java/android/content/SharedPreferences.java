@@ -0,0 +1,34 @@
+package android.content;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JVM stand-in for the part of android.content.SharedPreferences that the
+ * encoders reference.
+ */
+public interface SharedPreferences {
+    interface Editor {
+        Editor putBoolean(String key, boolean value);
+
+        Editor putString(String key, String value);
+
+        Editor putStringSet(String key, Set<String> values);
+
+        Editor remove(String key);
+
+        void apply();
+    }
+
+    Map<String, ?> getAll();
+
+    boolean contains(String key);
+
+    boolean getBoolean(String key, boolean defValue);
+
+    String getString(String key, String defValue);
+
+    Set<String> getStringSet(String key, Set<String> defValues);
+
+    Editor edit();
+}
@@ -0,0 +1,78 @@
+package android.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * JVM stand-in for android.graphics.Bitmap backed by a BufferedImage, with
+ * the methods the encoders and the gprinter SDK call.
+ */
+public final class Bitmap {
+    public enum Config {
+        ALPHA_8, RGB_565, ARGB_4444, ARGB_8888
+    }
+
+    private BufferedImage mImage;
+
+    Bitmap(BufferedImage image) {
+        mImage = image;
+    }
+
+    public static Bitmap wrap(BufferedImage image) {
+        return new Bitmap(image);
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        return new Bitmap(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+    }
+
+    public static Bitmap createBitmap(Bitmap source, int x, int y, int width, int height, Matrix m, boolean filter) {
+        BufferedImage sub = source.mImage.getSubimage(x, y, width, height);
+        if (m == null || m.isIdentity()) {
+            return new Bitmap(copy(sub, width, height, filter));
+        }
+        int w = Math.max(1, Math.round(width * m.getScaleX()));
+        int h = Math.max(1, Math.round(height * m.getScaleY()));
+        return new Bitmap(copy(sub, w, h, filter));
+    }
+
+    public static Bitmap createScaledBitmap(Bitmap src, int dstWidth, int dstHeight, boolean filter) {
+        return new Bitmap(copy(src.mImage, dstWidth, dstHeight, filter));
+    }
+
+    private static BufferedImage copy(BufferedImage src, int width, int height, boolean filter) {
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = out.createGraphics();
+        if (filter) {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        g.drawImage(src, 0, 0, width, height, null);
+        g.dispose();
+        return out;
+    }
+
+    public int getWidth() {
+        return mImage.getWidth();
+    }
+
+    public int getHeight() {
+        return mImage.getHeight();
+    }
+
+    public int getPixel(int x, int y) {
+        return mImage.getRGB(x, y);
+    }
+
+    public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+        mImage.getRGB(x, y, width, height, pixels, offset, stride);
+    }
+
+    public void recycle() {
+        mImage = null;
+    }
+
+    public boolean isRecycled() {
+        return mImage == null;
+    }
+}
@@ -0,0 +1,54 @@
+package android.graphics;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * JVM stand-in for android.graphics.BitmapFactory decoding through ImageIO.
+ * inSampleSize is applied by scaling the decoded image down.
+ */
+public final class BitmapFactory {
+    public static class Options {
+        public boolean inJustDecodeBounds;
+        public int inSampleSize = 1;
+        public Bitmap.Config inPreferredConfig = Bitmap.Config.ARGB_8888;
+        public boolean inScaled = true;
+        public int outWidth;
+        public int outHeight;
+    }
+
+    private BitmapFactory() {
+    }
+
+    public static Bitmap decodeByteArray(byte[] data, int offset, int length) {
+        return decodeByteArray(data, offset, length, null);
+    }
+
+    public static Bitmap decodeByteArray(byte[] data, int offset, int length, Options opts) {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new ByteArrayInputStream(data, offset, length));
+        } catch (IOException e) {
+            image = null;
+        }
+        if (image == null) {
+            if (opts != null) {
+                opts.outWidth = -1;
+                opts.outHeight = -1;
+            }
+            return null;
+        }
+        int sample = opts == null ? 1 : Math.max(1, opts.inSampleSize);
+        if (opts != null) {
+            opts.outWidth = image.getWidth() / sample;
+            opts.outHeight = image.getHeight() / sample;
+            if (opts.inJustDecodeBounds) return null;
+        }
+        Bitmap bitmap = Bitmap.wrap(image);
+        if (sample == 1) return bitmap;
+        return Bitmap.createScaledBitmap(bitmap, image.getWidth() / sample, image.getHeight() / sample, false);
+    }
+}
@@ -0,0 +1,31 @@
+package android.graphics;
+
+/**
+ * JVM stand-in for android.graphics.Matrix supporting scale only.
+ */
+public class Matrix {
+    private float mScaleX = 1;
+    private float mScaleY = 1;
+
+    public void postScale(float sx, float sy) {
+        mScaleX *= sx;
+        mScaleY *= sy;
+    }
+
+    public void setScale(float sx, float sy) {
+        mScaleX = sx;
+        mScaleY = sy;
+    }
+
+    public boolean isIdentity() {
+        return mScaleX == 1 && mScaleY == 1;
+    }
+
+    float getScaleX() {
+        return mScaleX;
+    }
+
+    float getScaleY() {
+        return mScaleY;
+    }
+}
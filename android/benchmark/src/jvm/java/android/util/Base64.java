@@ -0,0 +1,35 @@
+package android.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JVM stand-in for android.util.Base64 on top of java.util.Base64. The MIME
+ * decoder skips line breaks like the Android DEFAULT flag does.
+ */
+public final class Base64 {
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+
+    private Base64() {
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return java.util.Base64.getMimeDecoder().decode(str);
+    }
+
+    public static byte[] decode(byte[] input, int flags) {
+        return java.util.Base64.getMimeDecoder().decode(input);
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return new String(encode(input, flags), StandardCharsets.US_ASCII);
+    }
+
+    public static byte[] encode(byte[] input, int flags) {
+        java.util.Base64.Encoder encoder = (flags & NO_WRAP) != 0
+                ? java.util.Base64.getEncoder() : java.util.Base64.getMimeEncoder();
+        if ((flags & NO_PADDING) != 0) encoder = encoder.withoutPadding();
+        return encoder.encode(input);
+    }
+}
@@ -0,0 +1,155 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compacted rasters must print the same dots as plain bands. Both outputs
+ * of randomized images are rendered to paper and compared dot for dot.
+ */
+public class RasterCompactionTest {
+    private static final int PAPER_BYTES = 96;
+
+    @Test
+    public void escCompactRendersSameDots() {
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            int widthBytes = 2 * (1 + random.nextInt(PAPER_BYTES / 2));
+            Raster raster = randomRaster(random, widthBytes, 1 + random.nextInt(300));
+            int bandRows = 1 + random.nextInt(80);
+            int justification = random.nextInt(3);
+
+            EscEncoder plain = new EscEncoder().initializePrinter().selectJustification(justification);
+            plain.rasterImage(raster, 0, bandRows);
+            EscEncoder compact = new EscEncoder().initializePrinter().selectJustification(justification);
+            compact.rasterImageCompact(raster, 0, bandRows);
+
+            byte[] plainBytes = plain.toByteArray();
+            byte[] compactBytes = compact.toByteArray();
+            assertTrue("image " + i, sameRows(renderEsc(plainBytes), renderEsc(compactBytes)));
+            assertEquals(plainBytes.length - compactBytes.length, compact.getRasterBytesSaved());
+        }
+    }
+
+    @Test
+    public void escCompactKeepsFullWidthWithoutJustification() {
+        byte[] data = new byte[10 * 4];
+        data[1] = 1;
+        EscEncoder esc = new EscEncoder();
+        esc.rasterImageCompact(new Raster(data, 10, 4), 0, 64);
+        byte[] bytes = esc.toByteArray();
+        assertEquals(10, bytes[4] & 0xFF);
+    }
+
+    @Test
+    public void cpclCompactRendersSameDots() {
+        Random random = new Random(2);
+        for (int i = 0; i < 500; i++) {
+            Raster raster = randomRaster(random, 1 + random.nextInt(80), 1 + random.nextInt(300));
+            int bandRows = 1 + random.nextInt(80);
+            int x = 8 * random.nextInt(10);
+            int y = random.nextInt(50);
+
+            CpclEncoder plain = new CpclEncoder();
+            plain.graphics(raster, x, y, bandRows);
+            CpclEncoder compact = new CpclEncoder();
+            compact.graphicsCompact(raster, x, y, bandRows);
+
+            byte[] plainBytes = plain.toByteArray();
+            byte[] compactBytes = compact.toByteArray();
+            assertTrue("image " + i, Arrays.deepEquals(renderCpcl(plainBytes), renderCpcl(compactBytes)));
+            assertEquals(plainBytes.length - compactBytes.length, compact.getRasterBytesSaved());
+        }
+    }
+
+    // A few black rectangles on white, as logos and receipt images are mostly blank
+    private static Raster randomRaster(Random random, int widthBytes, int height) {
+        byte[] data = new byte[widthBytes * height];
+        for (int k = 0, blocks = random.nextInt(5); k < blocks; k++) {
+            int y0 = random.nextInt(height);
+            int y1 = Math.min(height, y0 + 1 + random.nextInt(60));
+            int x0 = random.nextInt(widthBytes);
+            int x1 = Math.min(widthBytes, x0 + 1 + random.nextInt(widthBytes));
+            for (int yy = y0; yy < y1; yy++) {
+                for (int xx = x0; xx < x1; xx++) data[yy * widthBytes + xx] = (byte) (random.nextInt(255) + 1);
+            }
+        }
+        return new Raster(data, widthBytes, height);
+    }
+
+    /**
+     * Paper rows printed by ESC @, ESC a, ESC J and GS v 0 commands.
+     */
+    private static List<byte[]> renderEsc(byte[] b) {
+        List<byte[]> rows = new ArrayList<>();
+        int justification = EscEncoder.JUSTIFICATION_LEFT;
+        int i = 0;
+        while (i < b.length) {
+            if (b[i] == 0x1B && b[i + 1] == '@') {
+                justification = EscEncoder.JUSTIFICATION_LEFT;
+                i += 2;
+            } else if (b[i] == 0x1B && b[i + 1] == 'a') {
+                justification = b[i + 2];
+                i += 3;
+            } else if (b[i] == 0x1B && b[i + 1] == 'J') {
+                for (int k = 0; k < (b[i + 2] & 0xFF); k++) rows.add(new byte[PAPER_BYTES]);
+                i += 3;
+            } else if (b[i] == 0x1D && b[i + 1] == 'v') {
+                int width = (b[i + 4] & 0xFF) + (b[i + 5] & 0xFF) * 256;
+                int height = (b[i + 6] & 0xFF) + (b[i + 7] & 0xFF) * 256;
+                i += 8;
+                int offset = justification == EscEncoder.JUSTIFICATION_LEFT ? 0
+                        : justification == EscEncoder.JUSTIFICATION_CENTER ? (PAPER_BYTES - width) / 2 : PAPER_BYTES - width;
+                for (int r = 0; r < height; r++) {
+                    byte[] row = new byte[PAPER_BYTES];
+                    System.arraycopy(b, i + r * width, row, offset, width);
+                    rows.add(row);
+                }
+                i += width * height;
+            } else {
+                throw new AssertionError("unexpected byte " + b[i] + " at " + i);
+            }
+        }
+        return rows;
+    }
+
+    private static boolean sameRows(List<byte[]> a, List<byte[]> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!Arrays.equals(a.get(i), b.get(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Page dots drawn by "CG width height x y data\r\n" commands.
+     */
+    private static byte[][] renderCpcl(byte[] b) {
+        byte[][] page = new byte[400][100];
+        int i = 0;
+        while (i < b.length) {
+            int start = i;
+            for (int spaces = 0; spaces < 5; i++) {
+                if (b[i] == ' ') spaces++;
+            }
+            String[] header = new String(b, start, i - start, StandardCharsets.US_ASCII).trim().split(" ");
+            int width = Integer.parseInt(header[1]);
+            int height = Integer.parseInt(header[2]);
+            int x = Integer.parseInt(header[3]);
+            int y = Integer.parseInt(header[4]);
+            for (int r = 0; r < height; r++) {
+                for (int k = 0; k < width; k++) page[y + r][x / 8 + k] |= b[i + r * width + k];
+            }
+            i += width * height + 2;
+        }
+        return page;
+    }
+}
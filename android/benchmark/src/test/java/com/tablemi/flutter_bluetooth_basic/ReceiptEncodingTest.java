@@ -0,0 +1,132 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import com.gprinter.command.EscCommand;
+import com.gprinter.command.LabelCommand;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * mapToReceipt must stay byte-identical to the gprinter EscCommand encoding
+ * it replaced for text, barcode and QR lines. The expected bytes are built
+ * the way the EscCommand version of mapToReceipt built them.
+ */
+public class ReceiptEncodingTest {
+
+    @Test
+    public void textLinesMatchEscCommand() {
+        assertReceipt(Arrays.asList(
+                line("text", "Table 12    Guests 4", 0, 0, 0, 0, 0, 0),
+                line("text", "欢迎光临 Tablemi Bistro", 1, 1, 16, 1, 0, 0),
+                line("text", "TOTAL", 2, 1, 32, 2, 1, 0),
+                line("text", "鱼香肉丝 (微辣)", 0, 0, 0, 0, 0, 0),
+                line("text", "12.50", 0, 0, 0, 0, 0, 320)));
+    }
+
+    @Test
+    public void barcodeLinesMatchEscCommand() {
+        assertReceipt(Arrays.asList(
+                line("barcode", "004711", 1, 0, 0, 0, 0, 0),
+                line("barcode", "No.12345678", 0, 0, 0, 0, 0, 0)));
+    }
+
+    @Test
+    public void qrCodeLinesMatchEscCommand() {
+        Map<String, Object> large = line("qrcode", "https://tablemi.com/r/004711", 1, 0, 0, 0, 0, 0);
+        large.put("size", 8);
+        assertReceipt(Arrays.asList(
+                line("qrcode", "https://tablemi.com/r/004711", 1, 0, 0, 0, 0, 0),
+                large,
+                line("qrcode", "订单 004711", 2, 0, 0, 0, 0, 0)));
+    }
+
+    @Test
+    public void mixedReceiptMatchesEscCommand() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        list.add(line("text", "欢迎光临", 1, 1, 16, 1, 0, 0));
+        for (int i = 0; i < 10; i++) {
+            list.add(line("text", "Item " + i + "    x" + (i + 1), 0, 0, 0, 0, 0, 0));
+        }
+        list.add(line("barcode", "004711", 1, 0, 0, 0, 0, 0));
+        list.add(line("qrcode", "004711", 1, 0, 0, 0, 0, 0));
+        assertReceipt(list);
+    }
+
+    private static void assertReceipt(List<Map<String, Object>> list) {
+        byte[] expected = PrintContent.toBytes(escCommandReceipt(list));
+        byte[] actual = PrintContent.mapToReceipt(new HashMap<String, Object>(), list);
+        assertArrayEquals(expected, actual);
+    }
+
+    private static Map<String, Object> line(String type, String content, int align, int weight,
+                                            int width, int height, int underline, int x) {
+        Map<String, Object> m = new HashMap<>();
+        m.put("type", type);
+        m.put("content", content);
+        m.put("size", 4);
+        m.put("align", align);
+        m.put("weight", weight);
+        m.put("width", width);
+        m.put("height", height);
+        m.put("underline", underline);
+        m.put("linefeed", 1);
+        m.put("x", x);
+        return m;
+    }
+
+    private static java.util.Vector<Byte> escCommandReceipt(List<Map<String, Object>> list) {
+        EscCommand esc = new EscCommand();
+        esc.addInitializePrinter();
+        esc.addPrintAndFeedLines((byte) 3);
+        for (Map<String, Object> m : list) {
+            String type = (String) m.get("type");
+            String content = (String) m.get("content");
+            int align = (int) m.get("align");
+            int size = (int) m.get("size");
+            int width = (int) m.get("width");
+            int height = (int) m.get("height");
+            int x = (int) m.get("x");
+            EscCommand.ENABLE emphasized = (int) m.get("weight") == 0 ? EscCommand.ENABLE.OFF : EscCommand.ENABLE.ON;
+            EscCommand.ENABLE underline = (int) m.get("underline") == 0 ? EscCommand.ENABLE.OFF : EscCommand.ENABLE.ON;
+            EscCommand.WIDTH_ZOOM widthZoom = width == 16 ? EscCommand.WIDTH_ZOOM.MUL_2
+                    : width == 32 ? EscCommand.WIDTH_ZOOM.MUL_3 : EscCommand.WIDTH_ZOOM.MUL_1;
+            EscCommand.HEIGHT_ZOOM heightZoom = height == 1 ? EscCommand.HEIGHT_ZOOM.MUL_2
+                    : height == 2 ? EscCommand.HEIGHT_ZOOM.MUL_3 : EscCommand.HEIGHT_ZOOM.MUL_1;
+
+            if (x == 0)
+                esc.addSelectJustification(align == 0 ? EscCommand.JUSTIFICATION.LEFT : (align == 1 ? EscCommand.JUSTIFICATION.CENTER : EscCommand.JUSTIFICATION.RIGHT));
+
+            if ("text".equals(type)) {
+                esc.addSelectPrintModes(EscCommand.FONT.FONTA, emphasized, EscCommand.ENABLE.OFF, EscCommand.ENABLE.OFF, underline);
+                esc.addSetCharcterSize(widthZoom, heightZoom);
+                if (x > 0)
+                    esc.addSetAbsolutePrintPosition((short) x);
+                esc.addText(content);
+                esc.addSelectPrintModes(EscCommand.FONT.FONTA, EscCommand.ENABLE.OFF, EscCommand.ENABLE.OFF, EscCommand.ENABLE.OFF, EscCommand.ENABLE.OFF);
+            } else if ("barcode".equals(type)) {
+                esc.addSelectPrintingPositionForHRICharacters(EscCommand.HRI_POSITION.BELOW);
+                esc.addSetBarcodeHeight((byte) 60);
+                esc.addSetBarcodeWidth((byte) 2);
+                esc.addCODE128(esc.genCodeB(content));
+            } else if ("qrcode".equals(type)) {
+                esc.addSelectErrorCorrectionLevelForQRCode((byte) 0x31);
+                esc.addSelectSizeOfModuleForQRCode((byte) size);
+                esc.addStoreQRCodeData(content);
+                esc.addPrintQRCode();
+            }
+            esc.addPrintAndLineFeed();
+        }
+        esc.addPrintAndFeedLines((byte) 4);
+        esc.addGeneratePlus(LabelCommand.FOOT.F2, (byte) 255, (byte) 255);
+        esc.addCutPaper();
+        esc.addUserCommand(new byte[]{0x1D, 0x72, 0x01});
+        return esc.getCommand();
+    }
+}
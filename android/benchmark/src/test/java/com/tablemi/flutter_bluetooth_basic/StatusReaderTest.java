@@ -0,0 +1,120 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reply matching of StatusReader, fed byte by byte as the connection's
+ * reader thread does.
+ */
+public class StatusReaderTest {
+    private final StatusReader reader = new StatusReader();
+
+    private void feed(int... bytes) {
+        for (int b : bytes) reader.onByte(b);
+    }
+
+    @Test
+    public void paperRepliesReportNearEndAndPaperOut() throws InterruptedException {
+        StatusReader.Pending ok = reader.expect(StatusReader.REPLY_PAPER);
+        StatusReader.Pending nearEnd = reader.expect(StatusReader.REPLY_PAPER);
+        StatusReader.Pending paperOut = reader.expect(StatusReader.REPLY_PAPER);
+        feed(0x00, 0x03, 0x0F);
+        assertEquals(0x00, reader.await(ok, 0));
+        assertEquals(0x03, reader.await(nearEnd, 0));
+        assertEquals(0x0F, reader.await(paperOut, 0));
+        assertTrue(reader.hasAnswered(StatusReader.REPLY_PAPER));
+        assertFalse(reader.hasAnswered(StatusReader.REPLY_REALTIME));
+    }
+
+    @Test
+    public void realtimeReplyOvertakesPaperReply() throws InterruptedException {
+        StatusReader.Pending paper = reader.expect(StatusReader.REPLY_PAPER);
+        StatusReader.Pending realtime = reader.expect(StatusReader.REPLY_REALTIME);
+        feed(0x12, 0x00);
+        assertEquals(0x12, reader.await(realtime, 0));
+        assertEquals(0x00, reader.await(paper, 0));
+    }
+
+    @Test
+    public void lateDleEotRepliesAreDropped() throws InterruptedException {
+        StatusReader.Pending paper = reader.expect(StatusReader.REPLY_PAPER);
+        // 0x36 and 0x3E fall in the block header range but are DLE EOT replies
+        feed(0x36, 0x3E, 0x0C);
+        assertEquals(0x0C, reader.await(paper, 0));
+
+        StatusReader.Pending next = reader.expect(StatusReader.REPLY_PAPER);
+        feed(0x00);
+        assertEquals(0x00, reader.await(next, 0));
+    }
+
+    @Test
+    public void blockRepliesMixWithAcks() throws InterruptedException {
+        StatusReader.Pending block = reader.expect(StatusReader.REPLY_BLOCK);
+        StatusReader.Pending paper = reader.expect(StatusReader.REPLY_PAPER);
+        feed(0x37, 'A', 'B', 0x00, 0x00);
+        assertArrayEquals(new byte[]{0x37, 'A', 'B'}, reader.awaitBlock(block, 0));
+        assertEquals(0x00, reader.await(paper, 0));
+    }
+
+    @Test
+    public void unexpectedBlockIsSwallowed() throws InterruptedException {
+        StatusReader.Pending paper = reader.expect(StatusReader.REPLY_PAPER);
+        // Header, body bytes that would pass for acks, NUL, then the ack
+        feed(0x35, 0x01, 0x02, 0x00, 0x03);
+        assertEquals(0x03, reader.await(paper, 0));
+    }
+
+    @Test
+    public void timedOutQueryConsumesItsLateReply() throws InterruptedException {
+        StatusReader.Pending first = reader.expect(StatusReader.REPLY_PAPER);
+        assertEquals(-1, reader.await(first, 1));
+
+        StatusReader.Pending second = reader.expect(StatusReader.REPLY_PAPER);
+        feed(0x0C);
+        assertFalse(second.done);
+        feed(0x00);
+        assertEquals(0x00, reader.await(second, 0));
+        assertEquals(-1, first.value);
+        assertTrue(reader.hasAnswered(StatusReader.REPLY_PAPER));
+    }
+
+    @Test
+    public void timedOutBlockConsumesItsLateReply() throws InterruptedException {
+        StatusReader.Pending first = reader.expect(StatusReader.REPLY_BLOCK);
+        assertNull(reader.awaitBlock(first, 1));
+
+        StatusReader.Pending second = reader.expect(StatusReader.REPLY_BLOCK);
+        feed(0x37, 'A', 0x00, 0x37, 'B', 0x00);
+        assertArrayEquals(new byte[]{0x37, 'B'}, reader.awaitBlock(second, 0));
+    }
+
+    @Test
+    public void abandonedQueriesDoNotKeepTheReaderBusy() throws InterruptedException {
+        StatusReader.Pending paper = reader.expect(StatusReader.REPLY_PAPER);
+        reader.await(paper, 1);
+        long start = System.nanoTime();
+        reader.awaitIdle(1000);
+        assertTrue((System.nanoTime() - start) / 1_000_000L < 500);
+    }
+
+    @Test
+    public void closeFailsWaitingQueries() throws InterruptedException {
+        StatusReader.Pending paper = reader.expect(StatusReader.REPLY_PAPER);
+        reader.close();
+        assertEquals(-1, reader.await(paper, 1000));
+        assertEquals(-1, reader.await(reader.expect(StatusReader.REPLY_PAPER), 1000));
+    }
+
+    @Test
+    public void tsplQueryTakesTheNextByte() throws InterruptedException {
+        StatusReader.Pending tspl = reader.expect(StatusReader.REPLY_TSPL);
+        feed(0x80);
+        assertEquals(0x80, reader.await(tspl, 0));
+    }
+}
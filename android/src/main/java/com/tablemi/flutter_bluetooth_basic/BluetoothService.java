@@ -2,25 +2,54 @@ package com.tablemi.flutter_bluetooth_basic;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.UUID;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class BluetoothService {
     private static final String TAG = "FLUTTER_BLUETOOTH";
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 60_000;
+    public static final long DEFAULT_ACK_TIMEOUT_MS = 15_000;
+    // How long a real-time DLE EOT query may take
+    private static final long REALTIME_TIMEOUT_MS = 500;
+    // How long close waits for outstanding status replies
+    private static final long CLOSE_DRAIN_MS = 2_000;
+    private static final byte[] STATUS_QUERY = {0x1D, 0x72, 0x01};
+    private static final byte[] TSPL_STATUS_QUERY = {0x1B, 0x21, 0x3F};
+    private static final String TCP_SCHEME = "tcp://";
+    private static final String LOOPBACK_SCHEME = "loopback://";
     private final Handler mHandler;
     private int mState;
 
     // Member fields
     private final BluetoothAdapter mAdapter;
     public ConnectThread mConnectThread;
+    // Open connections keyed by address, reused across print jobs
+    private final Map<String, ConnectThread> mConnections = new HashMap<>();
+    private final ScheduledExecutorService mIdleReaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "bt-idle-reaper");
+        t.setDaemon(true);
+        return t;
+    });
+    private long mIdleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    private long mAckTimeoutMs = DEFAULT_ACK_TIMEOUT_MS;
+    private long mConnectTimeoutMs = RfcommConnector.DEFAULT_TIMEOUT_MS;
+    // Connects in progress keyed by address, so they can be cancelled
+    private final Map<String, Transport> mConnecting = new HashMap<>();
+    private final WriteProfileStore mProfiles;
 
     /**
      * Constructor. Prepares a new BluetoothChat session.
@@ -29,9 +58,26 @@ public class BluetoothService {
      * @param handler A Handler to send messages back to the UI Activity
      */
     public BluetoothService(BluetoothAdapter adapter, Handler handler) {
+        this(adapter, handler, new WriteProfileStore(null));
+    }
+
+    /**
+     * @param adapter  BluetoothAdapter instance
+     * @param handler  A Handler to send messages back to the UI Activity
+     * @param profiles Store of the learned chunk size and pacing per device
+     */
+    public BluetoothService(BluetoothAdapter adapter, Handler handler, WriteProfileStore profiles) {
         mAdapter = adapter;
         mState = Constant.STATE_NONE;
         mHandler = handler;
+        mProfiles = profiles;
+    }
+
+    /**
+     * Return the store of per-device write profiles.
+     */
+    public WriteProfileStore getWriteProfiles() {
+        return mProfiles;
     }
 
 
@@ -42,6 +88,34 @@ public class BluetoothService {
         return mState;
     }
 
+    /**
+     * Set how long an unused connection stays open before it is closed.
+     *
+     * @param timeoutMs idle timeout in milliseconds, 0 keeps connections open until released
+     */
+    public synchronized void setIdleTimeout(long timeoutMs) {
+        mIdleTimeoutMs = Math.max(0, timeoutMs);
+        for (ConnectThread thread : mConnections.values()) {
+            scheduleIdleClose(thread);
+        }
+    }
+
+    /**
+     * Set how long a job waits for the printer to answer the status query at
+     * its end before the printer is asked why it did not.
+     */
+    public synchronized void setAckTimeout(long timeoutMs) {
+        mAckTimeoutMs = Math.max(0, timeoutMs);
+    }
+
+    /**
+     * Set how long a connect may take, over all its fallback attempts,
+     * before it fails.
+     */
+    public synchronized void setConnectTimeout(long timeoutMs) {
+        mConnectTimeoutMs = timeoutMs > 0 ? timeoutMs : RfcommConnector.DEFAULT_TIMEOUT_MS;
+    }
+
     /**
      * Start the chat service. Specifically start AcceptThread to begin a
      * session in listening (server) mode. Called by the Activity onResume()
@@ -51,48 +125,312 @@ public class BluetoothService {
 
         // Cancel any thread attempting to make a connection
         if (mConnectThread != null) {
-            mConnectThread.cancel();
+            mConnectThread.cancel(false);
             mConnectThread = null;
         }
 
     }
 
     /**
-     * Start the ConnectThread to initiate a connection to a remote device.
+     * Return an open connection to the device, reusing a pooled link when
+     * it is still alive and creating a new one otherwise.
+     * The blocking connect runs outside the service lock so that devices
+     * served by different workers connect in parallel.
      *
      * @param device The BluetoothDevice to connect
      */
-    public synchronized void connect(BluetoothDevice device) throws IOException {
-        Log.d(TAG, "connect to: " + device);
+    public void connect(BluetoothDevice device) throws IOException {
+        connect(device.getAddress());
+    }
 
+    /**
+     * @param device    The BluetoothDevice to connect
+     * @param timeoutMs how long the connect may take before it fails
+     */
+    public void connect(BluetoothDevice device, long timeoutMs) throws IOException {
+        connect(device.getAddress(), timeoutMs);
+    }
 
-        // Cancel any thread attempting to make a connection
-        if (mState == Constant.STATE_CONNECTED) {
-            if (mConnectThread != null) {
-                mConnectThread.cancel();
-                mConnectThread = null;
+    /**
+     * @param address MAC address of a Bluetooth printer, tcp://host[:port]
+     *                or loopback://name[?rate=bytesPerSecond]
+     * @see Transport
+     */
+    public void connect(String address) throws IOException {
+        long timeoutMs;
+        synchronized (this) {
+            timeoutMs = mConnectTimeoutMs;
+        }
+        connect(address, timeoutMs);
+    }
+
+    /**
+     * @param address   MAC address of a Bluetooth printer, tcp://host[:port]
+     *                  or loopback://name[?rate=bytesPerSecond]
+     * @param timeoutMs how long the connect may take before it fails
+     */
+    public void connect(String address, long timeoutMs) throws IOException {
+        Log.d(TAG, "connect to: " + address);
+        ConnectThread thread = obtain(address, timeoutMs);
+        synchronized (this) {
+            mConnectThread = thread;
+        }
+    }
+
+    /**
+     * Abort a connect to the device that is in progress; its caller fails
+     * at once.
+     *
+     * @param address address of the device
+     * @return whether a connect was in progress
+     */
+    public boolean cancelConnect(String address) {
+        Transport transport;
+        synchronized (this) {
+            transport = mConnecting.get(address);
+        }
+        if (transport == null) return false;
+        transport.cancel();
+        return true;
+    }
+
+    /**
+     * Open the connection to the device ahead of the first job so that it
+     * pays no connect latency.
+     *
+     * @param device The BluetoothDevice to connect
+     */
+    public void preconnect(BluetoothDevice device) throws IOException {
+        preconnect(device.getAddress());
+    }
+
+    /**
+     * @param address address of the device, see {@link #connect(String)}
+     */
+    public void preconnect(String address) throws IOException {
+        Log.d(TAG, "preconnect to: " + address);
+        long timeoutMs;
+        synchronized (this) {
+            timeoutMs = mConnectTimeoutMs;
+        }
+        obtain(address, timeoutMs);
+    }
+
+    /**
+     * Create the link for an address; see {@link Transport} for the schemes.
+     */
+    Transport createTransport(String address) throws IOException {
+        if (address.startsWith(TCP_SCHEME)) {
+            String host = address.substring(TCP_SCHEME.length());
+            int port = TcpTransport.DEFAULT_PORT;
+            int colon = host.lastIndexOf(':');
+            // A bare IPv6 address has several colons and no port; one with a port is bracketed
+            boolean hasPort = host.startsWith("[") ? colon > 0 && host.charAt(colon - 1) == ']'
+                    : colon > 0 && host.indexOf(':') == colon;
+            if (hasPort) {
+                try {
+                    port = Integer.parseInt(host.substring(colon + 1));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid port in " + address);
+                }
+                host = host.substring(0, colon);
+            }
+            if (host.startsWith("[") && host.endsWith("]")) host = host.substring(1, host.length() - 1);
+            return new TcpTransport(host, port);
+        }
+        if (address.startsWith(LOOPBACK_SCHEME)) {
+            int rate = 0;
+            int query = address.indexOf("?rate=");
+            if (query >= 0) {
+                try {
+                    rate = Integer.parseInt(address.substring(query + "?rate=".length()));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid rate in " + address);
+                }
+            }
+            return new LoopbackTransport(rate);
+        }
+        if (!BluetoothAdapter.checkBluetoothAddress(address)) {
+            throw new IOException("Invalid device address " + address);
+        }
+        return new RfcommTransport(mAdapter, mAdapter.getRemoteDevice(address));
+    }
+
+    /**
+     * Close the pooled connection to a device once the printer answered the
+     * outstanding status queries; may block up to CLOSE_DRAIN_MS, so call
+     * it off the main thread.
+     *
+     * @param address address of the device
+     */
+    public void release(String address) {
+        Log.d(TAG, "release: " + address);
+        ConnectThread thread;
+        synchronized (this) {
+            thread = mConnections.remove(address);
+            if (thread == null) return;
+            detach(thread);
+        }
+        // Drained outside the lock so jobs for other printers go on meanwhile
+        thread.cancel(true);
+    }
+
+    /**
+     * Return whether a live pooled connection exists for the address.
+     */
+    public synchronized boolean isConnected(String address) {
+        ConnectThread thread = mConnections.get(address);
+        return thread != null && thread.isOpen();
+    }
+
+    private ConnectThread obtain(String address, long timeoutMs) throws IOException {
+        long begin = System.nanoTime();
+        try {
+            return open(address, timeoutMs);
+        } catch (IOException e) {
+            PrintMetrics.failed();
+            throw e;
+        } finally {
+            PrintMetrics.record(PrintMetrics.PHASE_CONNECT, begin);
+        }
+    }
+
+    private ConnectThread open(String address, long timeoutMs) throws IOException {
+        synchronized (this) {
+            ConnectThread thread = mConnections.get(address);
+            if (thread != null) {
+                if (thread.isOpen()) {
+                    Log.d(TAG, "reuse connection: " + address);
+                    scheduleIdleClose(thread);
+                    return thread;
+                }
+                Log.d(TAG, "drop stale connection: " + address);
+                mConnections.remove(address);
+                close(thread);
+            }
+        }
+
+        // The transport waits at most the timeout and can be cancelled meanwhile
+        long start = SystemClock.elapsedRealtime();
+        Transport transport = createTransport(address);
+        ConnectThread thread;
+        synchronized (this) {
+            Transport other = mConnecting.put(address, transport);
+            if (other != null) other.cancel();
+            if (mConnections.isEmpty()) mState = Constant.STATE_CONNECTING;
+        }
+        try {
+            transport.connect(timeoutMs);
+            thread = new ConnectThread(address, transport);
+        } catch (IOException e) {
+            connectionFailed();
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            connectionFailed();
+            throw new InterruptedIOException("Connect to " + address + " interrupted");
+        } finally {
+            synchronized (this) {
+                if (mConnecting.get(address) == transport) mConnecting.remove(address);
             }
         }
+        if (transport instanceof RfcommTransport) {
+            DeviceRegistry.getInstance().recordConnect(((RfcommTransport) transport).getDevice(),
+                    SystemClock.elapsedRealtime() - start);
+        }
+        thread.start();
+        synchronized (this) {
+            ConnectThread other = mConnections.get(address);
+            if (other != null && other.isOpen()) {
+                // Another caller connected the same device meanwhile
+                thread.cancel(false);
+                scheduleIdleClose(other);
+                return other;
+            }
+            mConnections.put(address, thread);
+            mState = Constant.STATE_CONNECTED;
+            scheduleIdleClose(thread);
+        }
+        return thread;
+    }
+
+    private void scheduleIdleClose(final ConnectThread thread) {
+        if (thread.mmIdleClose != null) {
+            thread.mmIdleClose.cancel(false);
+            thread.mmIdleClose = null;
+        }
+        if (mIdleTimeoutMs > 0) {
+            thread.mmIdleClose = mIdleReaper.schedule(() -> {
+                synchronized (BluetoothService.this) {
+                    if (mConnections.get(thread.mmAddress) != thread) return;
+                    Log.d(TAG, "idle timeout: " + thread.mmAddress);
+                    mConnections.remove(thread.mmAddress);
+                    detach(thread);
+                }
+                thread.cancel(true);
+            }, mIdleTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Close a connection at once, without waiting for status replies; safe
+     * under the lock.
+     */
+    private void close(ConnectThread thread) {
+        detach(thread);
+        thread.cancel(false);
+    }
 
-        // Start the thread to connect with the given device
-        mConnectThread = new ConnectThread(device);
-        mConnectThread.start();
+    /**
+     * Drop the bookkeeping of a connection removed from the pool; the caller
+     * closes it.
+     */
+    private void detach(ConnectThread thread) {
+        if (thread.mmIdleClose != null) {
+            thread.mmIdleClose.cancel(false);
+            thread.mmIdleClose = null;
+        }
+        if (mConnectThread == thread) {
+            mConnectThread = null;
+        }
+        if (mConnections.isEmpty()) {
+            mState = Constant.STATE_NONE;
+        }
     }
 
 
     /**
-     * Stop all threads
+     * Stop all threads; connections close at once, without waiting for
+     * status replies.
      */
     public synchronized void stop() {
         Log.d(TAG, "stop");
         mState = Constant.STATE_NONE;
+        for (Transport transport : mConnecting.values()) {
+            transport.cancel();
+        }
+        mConnecting.clear();
+        List<ConnectThread> threads = new ArrayList<>(mConnections.values());
+        mConnections.clear();
+        for (ConnectThread thread : threads) {
+            close(thread);
+        }
         if (mConnectThread != null) {
-            mConnectThread.cancel();
+            mConnectThread.cancel(false);
             mConnectThread = null;
         }
 
     }
 
+    /**
+     * Stop all threads and the idle reaper; the service cannot be used
+     * afterwards.
+     */
+    public synchronized void shutdown() {
+        stop();
+        mIdleReaper.shutdownNow();
+    }
+
     /**
      * Write to the ConnectedThread in an unsynchronized manner
      *
@@ -107,13 +445,292 @@ public class BluetoothService {
             if (mState != Constant.STATE_CONNECTED) return;
             r = mConnectThread;
         }
-        r.join();
+        if (r == null) return;
+        try {
+            write(r, out);
+        } catch (IOException e) {
+            Log.e(TAG, "write failed", e);
+        }
+    }
+
+    /**
+     * Write to the pooled connection of a device in an unsynchronized manner
+     *
+     * @param address address of the device
+     * @param out     The bytes to write
+     * @see ConnectThread#write(byte[])
+     */
+    public void write(String address, byte[] out) throws InterruptedException, IOException {
+        write(pooled(address), out);
+    }
+
+    private void write(ConnectThread r, byte[] out) throws InterruptedException, IOException {
+        synchronized (this) {
+            // Keep the idle timer from closing the socket mid-job
+            if (r.mmIdleClose != null) {
+                r.mmIdleClose.cancel(false);
+                r.mmIdleClose = null;
+            }
+        }
         // Perform the write unsynchronized
-        r.write(out);
+        long begin = System.nanoTime();
+        try {
+            r.write(out);
+        } catch (IOException e) {
+            PrintMetrics.failed();
+            // Drop the broken socket so the next job reconnects
+            synchronized (this) {
+                if (mConnections.get(r.mmAddress) == r) {
+                    mConnections.remove(r.mmAddress);
+                    close(r);
+                }
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Write interrupted: " + r.mmAddress);
+            PrintMetrics.failed();
+            synchronized (this) {
+                if (mConnections.get(r.mmAddress) == r) scheduleIdleClose(r);
+            }
+            throw e;
+        } finally {
+            PrintMetrics.record(PrintMetrics.PHASE_WRITE, begin);
+        }
+        synchronized (this) {
+            if (mConnections.get(r.mmAddress) == r) scheduleIdleClose(r);
+        }
+    }
+
+    /**
+     * Write a job and, when it ends with the GS r 1 status query, wait until
+     * the printer answers it. The printer answers once it has processed the
+     * job, so returning paces the next job on the real print buffer instead
+     * of a fixed delay. When no answer comes the real-time DLE EOT status
+     * tells whether the printer stopped on an error; a printer that is fine
+     * but never answered GS r 1 is not waited for again until it is
+     * forgotten.
+     *
+     * @param address address of the device
+     * @param out     The bytes to write
+     * @throws PrinterStatusException when the printer reports paper out, an open cover or another error
+     */
+    public void print(String address, byte[] out) throws InterruptedException, IOException {
+        ConnectThread r = pooled(address);
+        StatusReader status = r.mmStatus;
+        DeviceRegistry registry = DeviceRegistry.getInstance();
+        boolean awaitAck = endsWith(out, STATUS_QUERY) && registry.answers(address, StatusReader.REPLY_PAPER);
+        StatusReader.Pending ack = awaitAck ? status.expect(StatusReader.REPLY_PAPER) : null;
+        write(r, out);
+        if (ack == null) return;
+
+        long timeout;
+        synchronized (this) {
+            timeout = mAckTimeoutMs;
+        }
+        int reply = status.await(ack, timeout);
+        if (reply >= 0) {
+            PrintMetrics.acknowledged();
+            if (PrinterStatus.isPaperNearEnd(reply)) Log.w(TAG, "paper near end: " + address);
+            String error = PrinterStatus.paperSensorError(reply);
+            if (error != null) throw new PrinterStatusException(error, "Printer " + address + " reports " + error);
+            return;
+        }
+        String error = diagnose(r);
+        if (error != null) throw new PrinterStatusException(error, "Printer " + address + " reports " + error);
+        if (!status.hasAnswered(StatusReader.REPLY_PAPER)) {
+            // No error, yet GS r 1 never answered: stop waiting for it on this printer, also after reconnects
+            Log.d(TAG, "no GS r replies from " + address);
+            registry.setAnswers(address, StatusReader.REPLY_PAPER, false);
+        }
+    }
+
+    /**
+     * Outcome of {@link #printBatch}, one state per job.
+     */
+    public static final class Batch {
+        public static final int SENT = 0;
+        public static final int ACKNOWLEDGED = 1;
+        public static final int FAILED = 2;
+        public static final int SKIPPED = 3;
+
+        public final int[] states;
+        // Cause of each FAILED job
+        public final IOException[] errors;
+
+        Batch(int size) {
+            states = new int[size];
+            errors = new IOException[size];
+        }
+    }
+
+    /**
+     * Write jobs back to back over the pooled connection, so the printer
+     * prints one while the next is sent, then match the GS r 1 replies of
+     * the jobs ending with the status query in order. Each reply may take
+     * the ack timeout from the previous one. Once a job fails, the printer
+     * has stopped: later jobs are left as SENT without waiting, and their
+     * late replies are consumed by the status reader. A failed write fails
+     * its job and the jobs after it are SKIPPED.
+     */
+    public Batch printBatch(String address, List<byte[]> jobs) throws InterruptedException, IOException {
+        ConnectThread r = pooled(address);
+        StatusReader status = r.mmStatus;
+        DeviceRegistry registry = DeviceRegistry.getInstance();
+        boolean answers = registry.answers(address, StatusReader.REPLY_PAPER);
+        Batch batch = new Batch(jobs.size());
+        StatusReader.Pending[] acks = new StatusReader.Pending[jobs.size()];
+        int written = 0;
+        for (; written < jobs.size(); written++) {
+            byte[] out = jobs.get(written);
+            if (answers && endsWith(out, STATUS_QUERY)) acks[written] = status.expect(StatusReader.REPLY_PAPER);
+            try {
+                write(r, out);
+            } catch (IOException e) {
+                batch.states[written] = Batch.FAILED;
+                batch.errors[written] = e;
+                for (int i = written + 1; i < jobs.size(); i++) batch.states[i] = Batch.SKIPPED;
+                break;
+            }
+        }
+
+        long timeout;
+        synchronized (this) {
+            timeout = mAckTimeoutMs;
+        }
+        // After a failed write the link is gone; replies already in are still taken
+        boolean stopped = written < jobs.size();
+        boolean acknowledged = !stopped && !jobs.isEmpty();
+        for (int i = 0; i < written; i++) {
+            if (acks[i] == null) {
+                acknowledged = false;
+                continue;
+            }
+            int reply = status.await(acks[i], stopped ? 0 : timeout);
+            if (stopped) {
+                if (reply >= 0) batch.states[i] = Batch.ACKNOWLEDGED;
+                acknowledged = false;
+                continue;
+            }
+            String error;
+            if (reply >= 0) {
+                batch.states[i] = Batch.ACKNOWLEDGED;
+                if (PrinterStatus.isPaperNearEnd(reply)) Log.w(TAG, "paper near end: " + address);
+                error = PrinterStatus.paperSensorError(reply);
+            } else {
+                acknowledged = false;
+                try {
+                    error = diagnose(r);
+                } catch (IOException e) {
+                    batch.states[i] = Batch.FAILED;
+                    batch.errors[i] = e;
+                    stopped = true;
+                    continue;
+                }
+                if (error == null && !status.hasAnswered(StatusReader.REPLY_PAPER)) {
+                    Log.d(TAG, "no GS r replies from " + address);
+                    registry.setAnswers(address, StatusReader.REPLY_PAPER, false);
+                    stopped = true;
+                }
+            }
+            if (error != null) {
+                batch.states[i] = Batch.FAILED;
+                batch.errors[i] = new PrinterStatusException(error, "Printer " + address + " reports " + error);
+                stopped = true;
+            }
+        }
+        if (acknowledged) PrintMetrics.acknowledged();
+        return batch;
+    }
+
+    /**
+     * Write a TSPL label job and check the label printer status with the
+     * real-time ESC ! ? query once the job is sent.
+     *
+     * @param address address of the device
+     * @param out     The bytes to write
+     * @throws PrinterStatusException when the printer reports paper out, an open cover, a jam or no ribbon
+     */
+    public void printLabel(String address, byte[] out) throws InterruptedException, IOException {
+        ConnectThread r = pooled(address);
+        write(r, out);
+        DeviceRegistry registry = DeviceRegistry.getInstance();
+        if (!registry.answers(address, StatusReader.REPLY_TSPL)) return;
+        StatusReader.Pending pending = r.mmStatus.expect(StatusReader.REPLY_TSPL);
+        r.writeDirect(TSPL_STATUS_QUERY);
+        int reply = r.mmStatus.await(pending, REALTIME_TIMEOUT_MS);
+        if (reply < 0) {
+            if (!r.mmStatus.hasAnswered(StatusReader.REPLY_TSPL)) registry.setAnswers(address, StatusReader.REPLY_TSPL, false);
+            return;
+        }
+        PrintMetrics.acknowledged();
+        String error = PrinterStatus.tsplError(reply);
+        if (error != null) throw new PrinterStatusException(error, "Printer " + address + " reports " + error);
+    }
+
+    /**
+     * Ask a printer that did not acknowledge a job for its real-time status.
+     *
+     * @return the error code, or null when the printer is fine or does not answer status queries
+     */
+    private String diagnose(ConnectThread r) throws InterruptedException, IOException {
+        int cause = realtime(r, 2);
+        if (cause < 0) return null;
+        String error = PrinterStatus.offlineCauseError(cause);
+        if (error == null) {
+            int roll = realtime(r, 4);
+            if (roll >= 0) error = PrinterStatus.rollSensorError(roll);
+        }
+        if (error == null) {
+            int printer = realtime(r, 1);
+            if (printer >= 0) error = PrinterStatus.printerError(printer);
+        }
+        if (error == null) Log.w(TAG, "print not acknowledged yet: " + r.mmAddress);
+        return error;
+    }
+
+    private int realtime(ConnectThread r, int n) throws InterruptedException, IOException {
+        StatusReader.Pending pending = r.mmStatus.expect(StatusReader.REPLY_REALTIME);
+        r.writeDirect(new byte[]{0x10, 0x04, (byte) n});
+        return r.mmStatus.await(pending, REALTIME_TIMEOUT_MS);
+    }
+
+    /**
+     * Send a query to the pooled connection of a device and wait for its reply.
+     *
+     * @param address   address of the device
+     * @param command   The bytes to send
+     * @param kind      one of the StatusReader.REPLY_ constants
+     * @param timeoutMs how long to wait for the reply
+     * @return the reply, a single status byte unless kind is REPLY_BLOCK, or null when the device did not answer in time
+     */
+    public byte[] query(String address, byte[] command, int kind, long timeoutMs) throws InterruptedException, IOException {
+        ConnectThread r = pooled(address);
+        StatusReader.Pending pending = r.mmStatus.expect(kind);
+        write(r, command);
+        if (kind == StatusReader.REPLY_BLOCK) {
+            return r.mmStatus.awaitBlock(pending, timeoutMs);
+        }
+        int value = r.mmStatus.await(pending, timeoutMs);
+        return value < 0 ? null : new byte[]{(byte) value};
+    }
+
+    private synchronized ConnectThread pooled(String address) throws IOException {
+        ConnectThread r = mConnections.get(address);
+        if (r == null) throw new IOException("Device " + address + " is not connected");
+        return r;
+    }
+
+    private static boolean endsWith(byte[] data, byte[] suffix) {
+        if (data.length < suffix.length) return false;
+        for (int i = 0; i < suffix.length; i++) {
+            if (data[data.length - suffix.length + i] != suffix[i]) return false;
+        }
+        return true;
     }
 
     /**
      * Indicate that the connection attempt failed and notify the UI Activity.
+     * Connections to other devices stay open.
      */
     private void connectionFailed() {
         // Send a failure message back to the Activity
@@ -122,87 +739,80 @@ public class BluetoothService {
         bundle.putString(Constant.TOAST, "Unable to connect device");
         msg.setData(bundle);
         mHandler.sendMessage(msg);
-        mState = Constant.STATE_NONE;
-        // Start the service over to restart listening mode
-        BluetoothService.this.start();
+        synchronized (this) {
+            if (mConnections.isEmpty()) mState = Constant.STATE_NONE;
+        }
     }
 
 
     /**
-     * This thread runs while attempting to make an outgoing connection
-     * with a device. It runs straight through; the connection either
-     * succeeds or fails.
+     * Owns a connected transport and reads the replies of the printer
+     * while it is open.
      */
     private class ConnectThread extends Thread {
-        private final BluetoothSocket mmSocket;
-        private final InputStream mmInStream;
-        private final OutputStream mmOutStream;
-
-
-        public ConnectThread(BluetoothDevice device) {
-            InputStream tmpIn = null;
-            OutputStream tmpOut = null;
-            BluetoothSocket tmp = null;
-            try {
-                UUID PRINTER_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-
-                tmp = device.createRfcommSocketToServiceRecord(PRINTER_UUID);
-                Log.d(TAG, "Get a BluetoothSocket");
-
-                if (mAdapter.isDiscovering()) {
-                    mAdapter.cancelDiscovery();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Error discovering", e);
-            }
-            mmSocket = tmp;
-            // Get the input and output streams; using temp objects because
-            // member streams are final.
-            // Make a connection to the BluetoothSocket
-            // This is a blocking call and will only return on a
-            // successful connection or an exception
-            try {
-                mmSocket.connect();
-                Log.d(TAG, "Get input and output streams;");
-                tmpIn = mmSocket.getInputStream();
-                tmpOut = mmSocket.getOutputStream();
-            } catch (IOException e) {
-                Log.e(TAG, "Error occurred when creating input stream", e);
-            }
-            mmInStream = tmpIn;
-            mmOutStream = tmpOut;
-            mState = Constant.STATE_CONNECTED;
+        private final String mmAddress;
+        private final Transport mmTransport;
+        private ScheduledFuture<?> mmIdleClose;
+        private final StatusReader mmStatus = new StatusReader();
+
+
+        /**
+         * @param transport a connected transport
+         */
+        public ConnectThread(String address, Transport transport) {
+            mmAddress = address;
+            mmTransport = transport;
+        }
 
+        /**
+         * Liveness check used before reusing a pooled connection.
+         */
+        public boolean isOpen() {
+            return mmTransport.isOpen();
         }
 
 
+        /**
+         * Reader loop: hands every byte the printer sends to the status
+         * reader until the link closes.
+         */
         public void run() {
-            Log.i(TAG, "BEGIN mConnectThread Socket");
-            // Make sure output stream is closed
-          /*  if (mmOutStream != null) {
-                try {
-                    mmOutStream.close();
+            Log.i(TAG, "BEGIN mConnectThread " + mmAddress);
+            byte[] buffer = new byte[64];
+            try {
+                int n;
+                while ((n = mmTransport.read(buffer)) >= 0) {
+                    for (int i = 0; i < n; i++) {
+                        mmStatus.onByte(buffer[i] & 0xFF);
+                    }
                 }
-                catch (Exception ignored) {connectionFailed();}
+            } catch (IOException e) {
+                Log.d(TAG, "reader closed: " + mmAddress);
+            } finally {
+                mmStatus.close();
             }
-
-            // mmInStream sure input stream is closed
-            if (mmInStream != null) {
-                try {
-                    mmInStream.close();
-                }
-                catch (Exception ignored) {connectionFailed();}
-            }*/
-
         }
 
+        /**
+         * Write a short command at once, bypassing chunking; real-time
+         * commands must not wait behind a paced job.
+         */
+        public void writeDirect(byte[] bytes) throws IOException {
+            mmTransport.write(bytes, 0, bytes.length);
+            mmTransport.flush();
+        }
 
         // Call this from the main activity to send data to the remote device.
-        public void write(byte[] bytes) {
+        // An interrupt ends the write part way and propagates, so the job fails
+        public void write(byte[] bytes) throws IOException, InterruptedException {
             try {
-                if (mmSocket != null && mmSocket.isConnected())
-                    Log.d(TAG, " Write Data");
-                mmOutStream.write(bytes);
+                Log.d(TAG, " Write Data");
+                WriteProfile profile = mProfiles.get(mmAddress);
+                try {
+                    new ChunkedWriter(profile).write(mmTransport, bytes);
+                } finally {
+                    mProfiles.save(mmAddress, profile);
+                }
             } catch (IOException e) {
                 Log.e(TAG, "Error occurred when sending data", e);
 
@@ -214,32 +824,24 @@ public class BluetoothService {
                         "Couldn't send data to the other device");
                 writeErrorMsg.setData(bundle);
                 mHandler.sendMessage(writeErrorMsg);
+                throw e;
             }
         }
 
-        public void cancel() {
+        /**
+         * @param drain let the printer answer outstanding status queries
+         *              first; blocks, so never with the service lock held
+         */
+        public void cancel(boolean drain) {
             Log.d(TAG, " shut down the connection");
-            // Flush output buffers befoce closing
-            try {
-                if (mmOutStream != null) {
-                    mmOutStream.flush();
-                    mmOutStream.close();
-                }
-                if (mmInStream != null)
-                    mmInStream.close();
-            } catch (Exception e) {
-                Log.e(TAG, "mmOutStream flush error", e);
-            }
-            // Close the connection socket
-            if (mmSocket != null) {
+            if (drain) {
                 try {
-                    Log.d(TAG, "close Socket");
-                    Thread.sleep(111);
-                    mmSocket.close();
-                } catch (Exception e) {
-                    Log.e(TAG, "Could not close the connect socket", e);
+                    mmStatus.awaitIdle(CLOSE_DRAIN_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
             }
+            mmTransport.close();
         }
     }
 
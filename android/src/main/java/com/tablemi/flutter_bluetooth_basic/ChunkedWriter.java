@@ -0,0 +1,88 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.io.IOException;
+
+/**
+ * Streams a payload to a printer in chunks paced against the measured link
+ * throughput. A chunk whose write blocks far longer than the link rate
+ * predicts means the printer buffer is filling up, so the chunk shrinks and
+ * the gap grows; a run of fast chunks grows the chunk again and shortens the
+ * gap. The profile passed in is tuned in place.
+ */
+public class ChunkedWriter {
+    // Consecutive smooth chunks before probing a larger chunk
+    private static final int GROW_AFTER = 8;
+    // A write is a stall once it takes this much longer than predicted
+    private static final int STALL_FACTOR = 3;
+    private static final long MIN_STALL_NS = 40_000_000L;
+    private static final double EWMA = 0.2;
+
+    private final WriteProfile mProfile;
+    private int mSmooth;
+
+    public ChunkedWriter(WriteProfile profile) {
+        mProfile = profile;
+    }
+
+    public WriteProfile getProfile() {
+        return mProfile;
+    }
+
+    public void write(Transport out, byte[] data) throws IOException, InterruptedException {
+        write(out, data, 0, data.length);
+    }
+
+    public void write(Transport out, byte[] data, int offset, int length) throws IOException, InterruptedException {
+        final int end = offset + length;
+        int pos = offset;
+        while (pos < end) {
+            final int n = Math.min(mProfile.chunkSize, end - pos);
+            final long start = System.nanoTime();
+            out.write(data, pos, n);
+            out.flush();
+            final long elapsed = System.nanoTime() - start;
+            pos += n;
+            PrintMetrics.recordChunk(n, elapsed);
+
+            final long pause = adapt(n, elapsed);
+            if (pos < end && pause > 0) {
+                Thread.sleep(pause);
+            }
+        }
+    }
+
+    /**
+     * Update the profile from one chunk timing and return the pause before
+     * the next chunk in milliseconds.
+     */
+    long adapt(int n, long elapsedNs) {
+        final WriteProfile p = mProfile;
+        final double bps = p.bytesPerSecond;
+        long predictedNs = bps > 0 ? (long) (n * 1e9 / bps) : 0;
+        boolean stalled = bps > 0 && elapsedNs > Math.max(MIN_STALL_NS, predictedNs * STALL_FACTOR);
+
+        if (p.adaptive) {
+            if (stalled) {
+                p.chunkSize = WriteProfile.clamp(p.chunkSize / 2, WriteProfile.MIN_CHUNK_SIZE, WriteProfile.MAX_CHUNK_SIZE);
+                p.delayMs = WriteProfile.clamp(p.delayMs * 2 + 5, 0, WriteProfile.MAX_DELAY_MS);
+                mSmooth = 0;
+            } else if (++mSmooth >= GROW_AFTER) {
+                p.chunkSize = WriteProfile.clamp(p.chunkSize + p.chunkSize / 4, WriteProfile.MIN_CHUNK_SIZE, WriteProfile.MAX_CHUNK_SIZE);
+                p.delayMs = WriteProfile.clamp(p.delayMs - 1 - p.delayMs / 4, 0, WriteProfile.MAX_DELAY_MS);
+                mSmooth = 0;
+            }
+        }
+
+        // Pace so that a chunk is not sent faster than the link drains it
+        long pacedMs = 0;
+        if (bps > 0) {
+            pacedMs = (predictedNs - elapsedNs) / 1_000_000L;
+        }
+        long pause = Math.max(p.delayMs, pacedMs);
+
+        // The link rate is what the stream drains while write() blocks
+        double sample = n * 1e9 / Math.max(1_000_000L, elapsedNs);
+        p.bytesPerSecond = bps <= 0 ? sample : bps + EWMA * (sample - bps);
+        return pause;
+    }
+}
@@ -0,0 +1,189 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A printer character set. Single-byte pages are selected with ESC t n and
+ * encoded through a table built once from the charset; multi-byte pages
+ * (GB18030, Big5) are the Kanji mode of the printer, selected with FS &,
+ * and encoded with a CharsetEncoder reused per thread; which chars they
+ * have is worked out once per block of 256 chars.
+ */
+public class CodePage {
+    public static final CodePage GB18030 = new CodePage("GB18030", -1, Charset.forName("GB18030"));
+
+    private static final ConcurrentHashMap<String, CodePage> sPages = new ConcurrentHashMap<>();
+
+    private final String mName;
+    private final int mTable;
+    private final Charset mCharset;
+    // Byte of each char above 0x7F by high byte of the char, 0 when unmapped
+    private final byte[][] mBlocks;
+    private final ThreadLocal<CharsetEncoder> mEncoder;
+    // Bit set of the encodable chars by high byte of the char, built on first use
+    private final AtomicReferenceArray<long[]> mEncodable;
+
+    private CodePage(String name, int table, Charset charset) {
+        mName = name;
+        mTable = table;
+        mCharset = charset;
+        if (table < 0) {
+            mBlocks = null;
+            mEncodable = new AtomicReferenceArray<>(256);
+            mEncoder = new ThreadLocal<CharsetEncoder>() {
+                @Override
+                protected CharsetEncoder initialValue() {
+                    // Same replacement as String.getBytes
+                    return mCharset.newEncoder()
+                            .onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                }
+            };
+        } else {
+            mBlocks = new byte[256][];
+            mEncoder = null;
+            mEncodable = null;
+            for (int b = 0x80; b <= 0xFF; b++) {
+                String s = new String(new byte[]{(byte) b}, charset);
+                if (s.length() == 1 && s.charAt(0) != '\uFFFD') put(s.charAt(0), b);
+            }
+        }
+    }
+
+    private void put(char c, int b) {
+        byte[] block = mBlocks[c >>> 8];
+        if (block == null) {
+            block = new byte[256];
+            mBlocks[c >>> 8] = block;
+        }
+        if (block[c & 0xFF] == 0) block[c & 0xFF] = (byte) b;
+    }
+
+    /**
+     * Look up a page by name, optionally with the ESC t number the printer
+     * uses for it: "CP437", "CP850", "CP852", "CP858", "CP866", "CP1252",
+     * "GB18030", "BIG5", or e.g. "CP858:19". The numbers default to the
+     * Epson ones.
+     *
+     * @throws IllegalArgumentException for an unknown page or one the platform has no charset for
+     */
+    public static CodePage forName(String spec) {
+        CodePage page = sPages.get(spec);
+        if (page != null) return page;
+        String name = spec;
+        int table = -2;
+        int colon = spec.indexOf(':');
+        if (colon > 0) {
+            name = spec.substring(0, colon);
+            try {
+                table = Integer.parseInt(spec.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid code page " + spec);
+            }
+        }
+        name = name.toUpperCase(Locale.ROOT);
+        try {
+            switch (name) {
+                case "CP437":
+                    page = new CodePage(name, table >= 0 ? table : 0, Charset.forName("IBM437"));
+                    break;
+                case "CP850":
+                    page = new CodePage(name, table >= 0 ? table : 2, Charset.forName("IBM850"));
+                    break;
+                case "CP1252":
+                    page = new CodePage(name, table >= 0 ? table : 16, Charset.forName("windows-1252"));
+                    break;
+                case "CP866":
+                    page = new CodePage(name, table >= 0 ? table : 17, Charset.forName("IBM866"));
+                    break;
+                case "CP852":
+                    page = new CodePage(name, table >= 0 ? table : 18, Charset.forName("IBM852"));
+                    break;
+                case "CP858":
+                    page = cp858(table >= 0 ? table : 19);
+                    break;
+                case "GB18030":
+                    page = GB18030;
+                    break;
+                case "BIG5":
+                    page = new CodePage(name, -1, Charset.forName("Big5"));
+                    break;
+                default:
+                    page = null;
+            }
+        } catch (UnsupportedCharsetException e) {
+            throw new IllegalArgumentException("Code page " + spec + " is not supported on this device", e);
+        }
+        if (page == null) throw new IllegalArgumentException("Unknown code page " + spec);
+        CodePage other = sPages.putIfAbsent(spec, page);
+        return other != null ? other : page;
+    }
+
+    /**
+     * CP850 with the euro sign in place of the dotless i; built from CP850
+     * where the platform has no IBM00858.
+     */
+    private static CodePage cp858(int table) {
+        if (Charset.isSupported("IBM00858")) return new CodePage("CP858", table, Charset.forName("IBM00858"));
+        CodePage page = new CodePage("CP858", table, Charset.forName("IBM850"));
+        // U+0131 dotless i
+        page.mBlocks[0x01][0x31] = 0;
+        page.put('\u20AC', 0xD5);
+        return page;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * The n of ESC t n, or -1 for a multi-byte page.
+     */
+    public int getTable() {
+        return mTable;
+    }
+
+    public boolean isMultiByte() {
+        return mTable < 0;
+    }
+
+    /**
+     * Byte of a char above 0x7F in a single-byte page, or -1 when the page
+     * has no such char.
+     */
+    public int map(char c) {
+        byte[] block = mBlocks[c >>> 8];
+        if (block == null) return -1;
+        int b = block[c & 0xFF] & 0xFF;
+        return b == 0 ? -1 : b;
+    }
+
+    public boolean canEncode(char c) {
+        if (mBlocks != null) return map(c) >= 0;
+        if (Character.isSurrogate(c)) return true;
+        long[] block = mEncodable.get(c >>> 8);
+        if (block == null) {
+            block = new long[4];
+            CharsetEncoder encoder = mCharset.newEncoder();
+            int base = c & 0xFF00;
+            for (int i = 0; i < 256; i++) {
+                if (encoder.canEncode((char) (base + i))) block[i >>> 6] |= 1L << i;
+            }
+            mEncodable.set(c >>> 8, block);
+        }
+        return (block[(c & 0xFF) >>> 6] & (1L << c)) != 0;
+    }
+
+    /**
+     * The encoder of a multi-byte page for the current thread.
+     */
+    CharsetEncoder encoder() {
+        return mEncoder.get();
+    }
+}
@@ -0,0 +1,244 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.nio.charset.Charset;
+
+/**
+ * CPCL command encoder writing straight into a {@link PrintBuffer}.
+ * Every command is a text line ending in CR LF; the session starts with
+ * the "!" page header and ends with PRINT.
+ */
+public class CpclEncoder {
+    public static final int JUSTIFICATION_LEFT = 0;
+    public static final int JUSTIFICATION_CENTER = 1;
+    public static final int JUSTIFICATION_RIGHT = 2;
+
+    private static final Charset QR_CHARSET = Charset.forName("UTF-8");
+    private static final byte[] CRLF = {'\r', '\n'};
+    // Rough size of a CG header and its line end
+    private static final int BAND_OVERHEAD = 24;
+
+    private final PrintBuffer mBuffer;
+    private long mRasterBytesSaved;
+
+    public CpclEncoder() {
+        this(new PrintBuffer());
+    }
+
+    public CpclEncoder(PrintBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    public PrintBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public byte[] toByteArray() {
+        return mBuffer.toByteArray();
+    }
+
+    /**
+     * ! offset hres vres height qty
+     *
+     * @param height label height in dots
+     * @param qty    number of copies
+     */
+    public CpclEncoder page(int offset, int resolution, int height, int qty) {
+        return command("! " + offset + " " + resolution + " " + resolution + " " + height + " " + qty);
+    }
+
+    /**
+     * PAGE-WIDTH w
+     */
+    public CpclEncoder pageWidth(int width) {
+        return command("PAGE-WIDTH " + width);
+    }
+
+    /**
+     * LEFT / CENTER / RIGHT, applied to the following text and barcodes
+     */
+    public CpclEncoder justify(int justification) {
+        return command(justification == JUSTIFICATION_CENTER ? "CENTER"
+                : justification == JUSTIFICATION_RIGHT ? "RIGHT" : "LEFT");
+    }
+
+    /**
+     * SETMAG w h, 0 restores the font size
+     */
+    public CpclEncoder setMagnification(int width, int height) {
+        return command("SETMAG " + width + " " + height);
+    }
+
+    /**
+     * SETBOLD n
+     */
+    public CpclEncoder setBold(boolean bold) {
+        return command(bold ? "SETBOLD 1" : "SETBOLD 0");
+    }
+
+    /**
+     * UNDERLINE ON / OFF
+     */
+    public CpclEncoder underline(boolean underline) {
+        return command(underline ? "UNDERLINE ON" : "UNDERLINE OFF");
+    }
+
+    /**
+     * TEXT font size x y data; line breaks in the data would end the
+     * command, so they print as spaces.
+     */
+    public CpclEncoder text(int font, int size, int x, int y, String text) {
+        ascii("TEXT " + font + " " + size + " " + x + " " + y + " ");
+        if (text != null && !text.isEmpty()) {
+            if (text.indexOf('\r') >= 0 || text.indexOf('\n') >= 0) {
+                text = text.replace('\r', ' ').replace('\n', ' ');
+            }
+            TextEncoder.encode(CodePage.GB18030, text, mBuffer);
+        }
+        mBuffer.write(CRLF);
+        return this;
+    }
+
+    /**
+     * BARCODE 128 width ratio height x y data
+     *
+     * @param width narrow bar width in dots
+     * @param ratio wide to narrow bar ratio, 0 to 4 for 1.5:1 to 3.0:1
+     */
+    public CpclEncoder code128(int width, int ratio, int height, int x, int y, String content) {
+        return command("BARCODE 128 " + width + " " + ratio + " " + height + " " + x + " " + y + " " + content);
+    }
+
+    /**
+     * BARCODE QR x y M 2 U unit, followed by the data line and ENDQR
+     *
+     * @param unit module size in dots, 1 to 32
+     */
+    public CpclEncoder qrCode(int x, int y, int unit, String content) {
+        command("BARCODE QR " + x + " " + y + " M 2 U " + unit);
+        ascii("MA,");
+        mBuffer.write(content.getBytes(QR_CHARSET));
+        mBuffer.write(CRLF);
+        return command("ENDQR");
+    }
+
+    /**
+     * CG widthBytes height x y data, split into commands of at most
+     * {@code bandRows} rows so large images reach the printer band by band.
+     */
+    public CpclEncoder graphics(Raster raster, int x, int y, int bandRows) {
+        int widthBytes = raster.widthBytes;
+        if (bandRows <= 0) bandRows = raster.height;
+        for (int row = 0; row < raster.height; row += bandRows) {
+            int rows = Math.min(bandRows, raster.height - row);
+            ascii("CG " + widthBytes + " " + rows + " " + x + " " + (y + row) + " ");
+            mBuffer.write(raster.data, row * widthBytes, widthBytes * rows);
+            mBuffer.write(CRLF);
+        }
+        return this;
+    }
+
+    /**
+     * Like {@link #graphics(Raster, int, int, int)} with fewer bytes: bands
+     * are placed at absolute positions, so blank rows between them are not
+     * sent and every band is cut down to the columns holding black dots.
+     */
+    public CpclEncoder graphicsCompact(Raster raster, int x, int y, int bandRows) {
+        final int widthBytes = raster.widthBytes;
+        final int height = raster.height;
+        final byte[] data = raster.data;
+        if (bandRows <= 0) bandRows = height;
+        int start = mBuffer.size();
+        int plain = 0;
+        for (int row = 0; row < height; row += bandRows) {
+            int rows = Math.min(bandRows, height - row);
+            plain += ("CG " + widthBytes + " " + rows + " " + x + " " + (y + row) + " ").length() + widthBytes * rows + CRLF.length;
+        }
+
+        int row = 0;
+        while (row < height) {
+            if (isBlank(data, row, widthBytes)) {
+                row++;
+                continue;
+            }
+            int end = row;
+            int blank = 0;
+            while (end < height && end - row < bandRows) {
+                if (!isBlank(data, end, widthBytes)) {
+                    blank = 0;
+                } else if (++blank * widthBytes > BAND_OVERHEAD) {
+                    break;
+                }
+                end++;
+            }
+            while (isBlank(data, end - 1, widthBytes)) end--;
+
+            int lo = widthBytes;
+            int hi = 0;
+            for (int i = row; i < end; i++) {
+                int offset = i * widthBytes;
+                int l = 0;
+                while (l < widthBytes && data[offset + l] == 0) l++;
+                if (l == widthBytes) continue;
+                int h = widthBytes;
+                while (data[offset + h - 1] == 0) h--;
+                lo = Math.min(lo, l);
+                hi = Math.max(hi, h);
+            }
+            int bandWidth = hi - lo;
+            int rows = end - row;
+            ascii("CG " + bandWidth + " " + rows + " " + (x + lo * 8) + " " + (y + row) + " ");
+            for (int i = row; i < end; i++) {
+                mBuffer.write(data, i * widthBytes + lo, bandWidth);
+            }
+            mBuffer.write(CRLF);
+            row = end;
+        }
+        mRasterBytesSaved += plain - (mBuffer.size() - start);
+        return this;
+    }
+
+    private static boolean isBlank(byte[] data, int row, int widthBytes) {
+        for (int i = row * widthBytes, end = i + widthBytes; i < end; i++) {
+            if (data[i] != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Bytes the compact graphics commands saved over plain CG bands so far.
+     */
+    public long getRasterBytesSaved() {
+        return mRasterBytesSaved;
+    }
+
+    /**
+     * FORM, feeds to the top of the next label on gap paper
+     */
+    public CpclEncoder form() {
+        return command("FORM");
+    }
+
+    /**
+     * PRINT, ends the session and prints the page
+     */
+    public CpclEncoder print() {
+        return command("PRINT");
+    }
+
+    public CpclEncoder command(String command) {
+        ascii(command);
+        mBuffer.write(CRLF);
+        return this;
+    }
+
+    private void ascii(String s) {
+        final int end = s.length();
+        int i = mBuffer.writeAscii(s, 0, end);
+        while (i < end) {
+            // As String.getBytes(US-ASCII): one '?' per char or surrogate pair
+            if (Character.isHighSurrogate(s.charAt(i)) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) i++;
+            mBuffer.write('?');
+            i = mBuffer.writeAscii(s, i + 1, end);
+        }
+    }
+}
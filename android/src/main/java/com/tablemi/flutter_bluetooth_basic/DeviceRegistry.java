@@ -0,0 +1,269 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide registry of Bluetooth devices. Connection state comes from
+ * the ACL broadcasts, with the hidden BluetoothDevice.isConnected() as the
+ * fallback for devices no broadcast has been seen for; its Method is
+ * resolved once. Printers the plugin has connected to are persisted with
+ * their name, type, last RSSI and last connect latency, so they can be
+ * listed and connected at startup without a scan.
+ */
+public class DeviceRegistry {
+    private static final String TAG = "DeviceRegistry";
+    private static final String PREFS_NAME = "flutter_bluetooth_basic_devices";
+    private static final String STATUS_PREFS_NAME = "flutter_bluetooth_basic_status";
+
+    private static final DeviceRegistry sInstance = new DeviceRegistry();
+
+    private static final class Known {
+        String name;
+        int type;
+        // 0 until the printer is seen in a scan
+        int rssi;
+        long connectMs = -1;
+        long lastConnected;
+        // RSSI as last persisted
+        int savedRssi;
+        boolean dirty;
+
+        String encode() {
+            return type + "," + rssi + "," + connectMs + "," + lastConnected + "," + (name == null ? "" : name);
+        }
+
+        static Known decode(String value) {
+            Known known = new Known();
+            String[] parts = value.split(",", 5);
+            try {
+                known.type = Integer.parseInt(parts[0]);
+                known.rssi = Integer.parseInt(parts[1]);
+                known.connectMs = Long.parseLong(parts[2]);
+                known.lastConnected = Long.parseLong(parts[3]);
+                known.name = parts.length > 4 && !parts[4].isEmpty() ? parts[4] : null;
+            } catch (RuntimeException e) {
+                return null;
+            }
+            return known;
+        }
+    }
+
+    // Smallest RSSI change persisted during a scan; smaller ones wait for the scan to stop
+    private static final int RSSI_SAVE_DELTA = ScanAggregator.DEFAULT_RSSI_DELTA;
+
+    private final Map<String, Known> mKnown = new HashMap<>();
+    // Connection state from ACL broadcasts, by address
+    private final Map<String, Boolean> mConnected = new HashMap<>();
+    private SharedPreferences mPrefs;
+    // Reply kinds a printer was found not to answer, as StatusReader kind bits, by address
+    private final Map<String, Integer> mNoReply = new HashMap<>();
+    private SharedPreferences mStatusPrefs;
+    private volatile Method mIsConnected;
+    private volatile boolean mIsConnectedResolved;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(intent.getAction())) {
+                // Every link is gone with the adapter; fall back to asking the device
+                synchronized (DeviceRegistry.this) {
+                    mConnected.clear();
+                }
+                return;
+            }
+            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+            if (device == null) return;
+            setConnected(device.getAddress(), BluetoothDevice.ACTION_ACL_CONNECTED.equals(intent.getAction()));
+        }
+    };
+
+    public static DeviceRegistry getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Load the known printers and start following ACL broadcasts; until then
+     * the registry lives in memory only.
+     */
+    public synchronized void init(Context context) {
+        if (mPrefs != null) return;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+            Known known = entry.getValue() instanceof String ? Known.decode((String) entry.getValue()) : null;
+            if (known != null) {
+                known.savedRssi = known.rssi;
+                mKnown.put(entry.getKey(), known);
+            }
+        }
+        mStatusPrefs = context.getSharedPreferences(STATUS_PREFS_NAME, Context.MODE_PRIVATE);
+        for (Map.Entry<String, ?> entry : mStatusPrefs.getAll().entrySet()) {
+            if (entry.getValue() instanceof Integer) mNoReply.put(entry.getKey(), (Integer) entry.getValue());
+        }
+        IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_ACL_CONNECTED);
+        filter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+        filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+        try {
+            context.registerReceiver(mReceiver, filter);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not follow ACL broadcasts", e);
+        }
+    }
+
+    public synchronized void setConnected(String address, boolean connected) {
+        mConnected.put(address, connected);
+    }
+
+    /**
+     * Connection state of a device, from the ACL broadcasts when one has been
+     * seen and from the hidden isConnected() otherwise.
+     */
+    public boolean isConnected(BluetoothDevice device) {
+        synchronized (this) {
+            Boolean connected = mConnected.get(device.getAddress());
+            if (connected != null) return connected;
+        }
+        Method method = resolveIsConnected();
+        if (method == null) return false;
+        try {
+            return (Boolean) method.invoke(device);
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    private Method resolveIsConnected() {
+        if (!mIsConnectedResolved) {
+            try {
+                mIsConnected = BluetoothDevice.class.getMethod("isConnected");
+            } catch (Exception ex) {
+                Log.d(TAG, "BluetoothDevice.isConnected() is not available");
+            }
+            mIsConnectedResolved = true;
+        }
+        return mIsConnected;
+    }
+
+    /**
+     * Record a successful connect; the device becomes a known printer.
+     */
+    public synchronized void recordConnect(BluetoothDevice device, long latencyMs) {
+        String address = device.getAddress();
+        Known known = mKnown.get(address);
+        if (known == null) {
+            known = new Known();
+            mKnown.put(address, known);
+        }
+        if (device.getName() != null) known.name = device.getName();
+        known.type = device.getType();
+        known.connectMs = latencyMs;
+        known.lastConnected = System.currentTimeMillis();
+        mConnected.put(address, true);
+        save(address, known);
+    }
+
+    /**
+     * Record the signal strength of a scanned device if it is a known printer.
+     * It is persisted when the name changes or the RSSI moves by at least
+     * RSSI_SAVE_DELTA, otherwise by {@link #saveScanned()}.
+     */
+    public synchronized void recordRssi(String address, String name, int rssi) {
+        Known known = mKnown.get(address);
+        if (known == null) return;
+        boolean renamed = name != null && !name.equals(known.name);
+        known.rssi = rssi;
+        if (name != null) known.name = name;
+        if (renamed || Math.abs(rssi - known.savedRssi) >= RSSI_SAVE_DELTA) {
+            save(address, known);
+        } else {
+            known.dirty = rssi != known.savedRssi;
+        }
+    }
+
+    /**
+     * Persist the RSSI values recorded since they were last saved; called
+     * when a scan stops.
+     */
+    public synchronized void saveScanned() {
+        for (Map.Entry<String, Known> entry : mKnown.entrySet()) {
+            if (entry.getValue().dirty) save(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public synchronized void forget(String address) {
+        mKnown.remove(address);
+        if (mPrefs != null) mPrefs.edit().remove(address).apply();
+        setAnswers(address, -1, true);
+    }
+
+    /**
+     * Whether a printer is expected to answer status queries of a kind; true
+     * until it was found not to, across reconnects and restarts.
+     *
+     * @param kind one of the StatusReader.REPLY_ constants
+     */
+    public synchronized boolean answers(String address, int kind) {
+        Integer mask = mNoReply.get(address);
+        return mask == null || (mask & (1 << kind)) == 0;
+    }
+
+    /**
+     * Record whether a printer answers status queries of a kind; a kind of
+     * -1 resets every kind. Forgetting the device resets it as well.
+     */
+    public synchronized void setAnswers(String address, int kind, boolean answers) {
+        Integer old = mNoReply.get(address);
+        int before = old == null ? 0 : old;
+        int mask = before;
+        if (kind < 0) {
+            mask = 0;
+        } else if (answers) {
+            mask &= ~(1 << kind);
+        } else {
+            mask |= 1 << kind;
+        }
+        if (mask == before) return;
+        if (mask == 0) {
+            mNoReply.remove(address);
+            if (mStatusPrefs != null) mStatusPrefs.edit().remove(address).apply();
+        } else {
+            mNoReply.put(address, mask);
+            if (mStatusPrefs != null) mStatusPrefs.edit().putInt(address, mask).apply();
+        }
+    }
+
+    public synchronized List<Map<String, Object>> getKnownDevices() {
+        List<Map<String, Object>> devices = new ArrayList<>(mKnown.size());
+        for (Map.Entry<String, Known> entry : mKnown.entrySet()) {
+            Known known = entry.getValue();
+            Map<String, Object> ret = new HashMap<>();
+            ret.put("address", entry.getKey());
+            ret.put("name", known.name);
+            ret.put("type", known.type);
+            ret.put("isConnected", Boolean.TRUE.equals(mConnected.get(entry.getKey())));
+            if (known.rssi != 0) ret.put("rssi", known.rssi);
+            if (known.connectMs >= 0) ret.put("connectLatency", known.connectMs);
+            ret.put("lastConnected", known.lastConnected);
+            devices.add(ret);
+        }
+        return devices;
+    }
+
+    private void save(String address, Known known) {
+        known.savedRssi = known.rssi;
+        known.dirty = false;
+        if (mPrefs != null) mPrefs.edit().putString(address, known.encode()).apply();
+    }
+}
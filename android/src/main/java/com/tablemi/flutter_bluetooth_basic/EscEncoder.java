@@ -0,0 +1,442 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.nio.charset.Charset;
+
+/**
+ * ESC/POS command encoder writing straight into a {@link PrintBuffer}.
+ * The byte sequences match the ones produced by com.gprinter.command.EscCommand
+ * for the commands used by {@link PrintContent}.
+ */
+public class EscEncoder {
+    public static final int ESC = 0x1B;
+    public static final int GS = 0x1D;
+    public static final int LF = 0x0A;
+
+    public static final int JUSTIFICATION_LEFT = 0;
+    public static final int JUSTIFICATION_CENTER = 1;
+    public static final int JUSTIFICATION_RIGHT = 2;
+
+    public static final int HRI_NONE = 0;
+    public static final int HRI_ABOVE = 1;
+    public static final int HRI_BELOW = 2;
+    public static final int HRI_BOTH = 3;
+
+    public static final int PULSE_PIN_2 = 0;
+    public static final int PULSE_PIN_5 = 1;
+
+    private static final Charset TEXT_CHARSET = Charset.forName("GB18030");
+    private static final Charset QR_CHARSET = Charset.forName("UTF-8");
+    // GS v 0 header and ESC J: a band split pays for both
+    private static final int BAND_OVERHEAD = 8 + 3;
+    private static final int UNKNOWN = -1;
+
+    private final PrintBuffer mBuffer;
+    private final TextEncoder mText;
+    // Justification the printer is in, as far as this encoder wrote it
+    private int mJustification = UNKNOWN;
+    private long mRasterBytesSaved;
+
+    public EscEncoder() {
+        this(new PrintBuffer());
+    }
+
+    public EscEncoder(PrintBuffer buffer) {
+        mBuffer = buffer;
+        mText = new TextEncoder(buffer);
+    }
+
+    /**
+     * Code pages for text, in order of preference; null keeps GB18030.
+     *
+     * @see TextEncoder
+     */
+    public EscEncoder setCodePages(CodePage[] pages) {
+        mText.setPages(pages);
+        return this;
+    }
+
+    public PrintBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public byte[] toByteArray() {
+        return mBuffer.toByteArray();
+    }
+
+    /**
+     * ESC @
+     */
+    public EscEncoder initializePrinter() {
+        mBuffer.write(ESC, '@');
+        mJustification = JUSTIFICATION_LEFT;
+        mText.reset();
+        return this;
+    }
+
+    /**
+     * LF
+     */
+    public EscEncoder printAndLineFeed() {
+        mBuffer.write(LF);
+        return this;
+    }
+
+    /**
+     * ESC d n
+     */
+    public EscEncoder printAndFeedLines(int lines) {
+        mBuffer.write(ESC, 'd', lines);
+        return this;
+    }
+
+    /**
+     * ESC a n
+     */
+    public EscEncoder selectJustification(int justification) {
+        mBuffer.write(ESC, 'a', justification);
+        mJustification = justification;
+        return this;
+    }
+
+    /**
+     * ESC ! n
+     */
+    public EscEncoder selectPrintModes(boolean fontB, boolean emphasized, boolean doubleHeight,
+                                       boolean doubleWidth, boolean underline) {
+        int mode = 0;
+        if (fontB) mode |= 0x01;
+        if (emphasized) mode |= 0x08;
+        if (doubleHeight) mode |= 0x10;
+        if (doubleWidth) mode |= 0x20;
+        if (underline) mode |= 0x80;
+        mBuffer.write(ESC, '!', mode);
+        return this;
+    }
+
+    /**
+     * GS ! n
+     *
+     * @param width  horizontal magnification, 1 to 8
+     * @param height vertical magnification, 1 to 8
+     */
+    public EscEncoder setCharacterSize(int width, int height) {
+        mBuffer.write(GS, '!', ((width - 1) & 0x07) << 4 | ((height - 1) & 0x07));
+        return this;
+    }
+
+    /**
+     * ESC $ nL nH
+     */
+    public EscEncoder setAbsolutePrintPosition(int position) {
+        short pos = (short) position;
+        mBuffer.write(ESC, '$').write(pos % 256, pos / 256);
+        return this;
+    }
+
+    public EscEncoder text(String text) {
+        if (text != null && !text.isEmpty()) {
+            mText.encode(text);
+        }
+        return this;
+    }
+
+    /**
+     * GS H n
+     */
+    public EscEncoder selectHriPosition(int position) {
+        mBuffer.write(GS, 'H', position);
+        return this;
+    }
+
+    /**
+     * GS h n
+     */
+    public EscEncoder setBarcodeHeight(int height) {
+        mBuffer.write(GS, 'h', height);
+        return this;
+    }
+
+    /**
+     * GS w n
+     */
+    public EscEncoder setBarcodeWidth(int width) {
+        if (width > 6) width = 6;
+        if (width < 2) width = 1;
+        mBuffer.write(GS, 'w', width);
+        return this;
+    }
+
+    /**
+     * GS k 73 n d1...dn, using code set B.
+     */
+    public EscEncoder code128(String content) {
+        String data = "{B" + content;
+        int length = (byte) data.length();
+        mBuffer.write(GS, 'k', 73).write(length);
+        if (!data.isEmpty()) {
+            byte[] bytes = data.getBytes(TEXT_CHARSET);
+            mBuffer.write(bytes, 0, Math.max(0, Math.min(length, bytes.length)));
+        }
+        return this;
+    }
+
+    /**
+     * GS ( k, function 169: error correction level
+     */
+    public EscEncoder qrErrorCorrection(int level) {
+        qrFunction('E', level);
+        return this;
+    }
+
+    /**
+     * GS ( k, function 167: module size
+     */
+    public EscEncoder qrModuleSize(int size) {
+        qrFunction('C', size);
+        return this;
+    }
+
+    /**
+     * GS ( k, function 180: store data in the symbol storage area
+     */
+    public EscEncoder qrStoreData(String content) {
+        byte[] bytes = content.getBytes(QR_CHARSET);
+        int length = bytes.length + 3;
+        mBuffer.write(GS, '(', 'k').write(length % 256, length / 256).write('1', 'P', '0');
+        mBuffer.write(bytes);
+        return this;
+    }
+
+    /**
+     * GS ( k, function 181: print the stored symbol
+     */
+    public EscEncoder qrPrint() {
+        qrFunction('Q', '0');
+        return this;
+    }
+
+    private void qrFunction(int fn, int value) {
+        mBuffer.write(GS, '(', 'k').write(3, 0).write('1', fn, value);
+    }
+
+    /**
+     * GS v 0 m xL xH yL yH d1...dk
+     *
+     * @param raster packed 1-bpp rows, MSB is the leftmost dot
+     * @param mode   0 normal, 1 double width
+     */
+    public EscEncoder rasterImage(Raster raster, int mode) {
+        return rasterImage(raster, mode, raster.height);
+    }
+
+    /**
+     * Split the raster into GS v 0 commands of at most {@code bandRows}
+     * rows each, so every band fits in the printer receive buffer.
+     */
+    public EscEncoder rasterImage(Raster raster, int mode, int bandRows) {
+        int widthBytes = raster.widthBytes;
+        if (bandRows <= 0) bandRows = raster.height;
+        for (int y = 0; y < raster.height; y += bandRows) {
+            int rows = Math.min(bandRows, raster.height - y);
+            mBuffer.write(GS, 'v', '0').write(mode & 0x01)
+                    .write(widthBytes % 256, widthBytes / 256)
+                    .write(rows % 256, rows / 256);
+            mBuffer.write(raster.data, y * widthBytes, widthBytes * rows);
+        }
+        return this;
+    }
+
+    /**
+     * Like {@link #rasterImage(Raster, int, int)} with fewer bytes on the
+     * wire. Blank rows between bands are skipped with ESC J feeds, assuming
+     * the default vertical motion unit of one dot. A band is not split for a
+     * short blank run, when the header would cost more than the rows.
+     * Each band is cut down to the columns holding black dots, as far as the
+     * justification keeps the image in place: trailing white bytes when
+     * left aligned, leading ones when right aligned, and an equal number on
+     * both sides when centered.
+     */
+    public EscEncoder rasterImageCompact(Raster raster, int mode, int bandRows) {
+        final int widthBytes = raster.widthBytes;
+        final int height = raster.height;
+        final byte[] data = raster.data;
+        if (bandRows <= 0) bandRows = height;
+        int start = mBuffer.size();
+
+        // First and one past the last byte with black dots per row, first == widthBytes for blank rows
+        int[] first = new int[height];
+        int[] last = new int[height];
+        for (int y = 0, row = 0; y < height; y++, row += widthBytes) {
+            int lo = 0;
+            while (lo < widthBytes && data[row + lo] == 0) lo++;
+            int hi = widthBytes;
+            while (hi > lo && data[row + hi - 1] == 0) hi--;
+            first[y] = lo;
+            last[y] = hi;
+        }
+
+        int y = 0;
+        while (y < height) {
+            if (first[y] == widthBytes) {
+                int run = blankRun(first, y, widthBytes);
+                feedDots(run);
+                y += run;
+                continue;
+            }
+            int end = y;
+            while (end < height && end - y < bandRows) {
+                if (first[end] == widthBytes) {
+                    int run = blankRun(first, end, widthBytes);
+                    if (run * widthBytes > BAND_OVERHEAD) break;
+                    end = Math.min(end + run, y + bandRows);
+                } else {
+                    end++;
+                }
+            }
+            while (first[end - 1] == widthBytes) end--;
+
+            int lo = widthBytes;
+            int hi = 0;
+            for (int i = y; i < end; i++) {
+                if (first[i] == widthBytes) continue;
+                lo = Math.min(lo, first[i]);
+                hi = Math.max(hi, last[i]);
+            }
+            int from = 0;
+            int to = widthBytes;
+            if (mJustification == JUSTIFICATION_LEFT) {
+                to = hi;
+            } else if (mJustification == JUSTIFICATION_RIGHT) {
+                from = lo;
+            } else if (mJustification == JUSTIFICATION_CENTER) {
+                from = Math.min(lo, widthBytes - hi);
+                to = widthBytes - from;
+            }
+            int bandWidth = to - from;
+            int rows = end - y;
+            mBuffer.write(GS, 'v', '0').write(mode & 0x01)
+                    .write(bandWidth % 256, bandWidth / 256)
+                    .write(rows % 256, rows / 256);
+            if (bandWidth == widthBytes) {
+                mBuffer.write(data, y * widthBytes, widthBytes * rows);
+            } else {
+                for (int i = y; i < end; i++) {
+                    mBuffer.write(data, i * widthBytes + from, bandWidth);
+                }
+            }
+            y = end;
+        }
+
+        int plain = widthBytes * height + 8 * ((height + bandRows - 1) / bandRows);
+        mRasterBytesSaved += plain - (mBuffer.size() - start);
+        return this;
+    }
+
+    private static int blankRun(int[] first, int y, int widthBytes) {
+        int end = y;
+        while (end < first.length && first[end] == widthBytes) end++;
+        return end - y;
+    }
+
+    /**
+     * ESC J n, repeated for feeds longer than 255 dots
+     */
+    public EscEncoder feedDots(int dots) {
+        while (dots > 0) {
+            int n = Math.min(255, dots);
+            mBuffer.write(ESC, 'J', n);
+            dots -= n;
+        }
+        return this;
+    }
+
+    /**
+     * Bytes the compact raster commands saved over plain GS v 0 bands so far;
+     * negative when the feeds cost more than the rows they replaced.
+     */
+    public long getRasterBytesSaved() {
+        return mRasterBytesSaved;
+    }
+
+    /**
+     * Forget the justification and code page, e.g. when commands from
+     * another encoder are spliced in after this one's.
+     */
+    public void resetState() {
+        mJustification = UNKNOWN;
+        mText.forget();
+    }
+
+    /**
+     * GS ( L, function 48: transmit the NV graphics memory capacity.
+     * The printer answers 0x37 0x30 capacity-digits NUL.
+     */
+    public EscEncoder queryNvGraphicsCapacity() {
+        mBuffer.write(GS, '(', 'L').write(2, 0).write('0', '0');
+        return this;
+    }
+
+    /**
+     * GS 8 L, function 67: define a raster graphic in NV memory under a key.
+     * The extended form carries payloads larger than 64 KB.
+     */
+    public EscEncoder defineNvGraphics(String key, Raster raster) {
+        int size = raster.widthBytes * raster.height;
+        int length = 11 + size;
+        int dots = raster.widthDots();
+        mBuffer.write(GS, '8', 'L')
+                .write(length & 0xFF, (length >> 8) & 0xFF)
+                .write((length >> 16) & 0xFF, (length >> 24) & 0xFF)
+                .write('0', 'C', '0')
+                .write(key.charAt(0), key.charAt(1))
+                .write(1)
+                .write(dots % 256, dots / 256)
+                .write(raster.height % 256, raster.height / 256)
+                .write('1');
+        mBuffer.write(raster.data, 0, size);
+        return this;
+    }
+
+    /**
+     * GS ( L, function 69: print the NV graphic stored under a key.
+     *
+     * @param scaleX 1 or 2
+     * @param scaleY 1 or 2
+     */
+    public EscEncoder printNvGraphics(String key, int scaleX, int scaleY) {
+        mBuffer.write(GS, '(', 'L').write(6, 0).write('0', 'E')
+                .write(key.charAt(0), key.charAt(1))
+                .write(scaleX, scaleY);
+        return this;
+    }
+
+    /**
+     * GS ( L, function 66: delete the NV graphic stored under a key.
+     */
+    public EscEncoder deleteNvGraphics(String key) {
+        mBuffer.write(GS, '(', 'L').write(4, 0).write('0', 'B')
+                .write(key.charAt(0), key.charAt(1));
+        return this;
+    }
+
+    /**
+     * ESC p m t1 t2
+     */
+    public EscEncoder generatePulse(int pin, int onTime, int offTime) {
+        mBuffer.write(ESC, 'p', pin).write(onTime, offTime);
+        return this;
+    }
+
+    /**
+     * GS V 1
+     */
+    public EscEncoder cutPaper() {
+        mBuffer.write(GS, 'V', 1);
+        return this;
+    }
+
+    public EscEncoder userCommand(byte[] command) {
+        mBuffer.write(command);
+        return this;
+    }
+}
@@ -7,6 +7,7 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.BroadcastReceiver;
@@ -14,24 +15,32 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
@@ -55,6 +64,8 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
     private static final String NAMESPACE = "flutter_bluetooth_basic";
     private MethodChannel channel;
     private EventChannel stateChannel;
+    private EventChannel metricsChannel;
+    private EventChannel jobChannel;
     private BluetoothManager mBluetoothManager;
     private BluetoothAdapter mBluetoothAdapter;
     private FlutterPluginBinding pluginBinding;
@@ -64,6 +75,34 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
      * Member object for the chat services
      */
     private BluetoothService mService = null;
+    /**
+     * Ordered per-device workers for print and write jobs
+     */
+    private PrintJobScheduler mScheduler = new PrintJobScheduler();
+    private final PrintJobTracker mJobs = new PrintJobTracker();
+    private final ScanAggregator mScanAggregator = new ScanAggregator(new Handler(Looper.getMainLooper()), new ScanAggregator.Listener() {
+        @Override
+        public boolean isConnected(BluetoothDevice device) {
+            return DeviceRegistry.getInstance().isConnected(device);
+        }
+
+        @Override
+        public void onScanResults(List<Map<String, Object>> devices) {
+            for (Map<String, Object> device : devices) {
+                DeviceRegistry.getInstance().recordRssi((String) device.get("address"), (String) device.get("name"), (int) device.get("rssi"));
+            }
+            synchronized (tearDownLock) {
+                //Could already be teared down at this moment
+                if (channel != null) {
+                    channel.invokeMethod("ScanResults", devices);
+                } else {
+                    Log.w(TAG, "Tried to call " + "ScanResults" + " on closed channel");
+                }
+            }
+        }
+    });
+    // Precompiled receipts keyed by template id
+    private final Map<String, ReceiptTemplate> mTemplates = new ConcurrentHashMap<>();
 
     private static final int REQUEST_FINE_LOCATION_PERMISSIONS = 1451;
     private static final int REQUEST_COARSE_LOCATION_PERMISSIONS = 1452;
@@ -71,9 +110,23 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
     private static final int REQUEST_ENABLE_BLUETOOTH = 1001;
     private static final int REQUEST_DEVICES = 1002;
 
-    private MethodCall pendingCall;
-    private Result pendingResult;
-    private Map<String, Object> pendingArgs;
+    /**
+     * A call waiting for a permission or activity result
+     */
+    private static final class PendingCall {
+        final MethodCall call;
+        final Map<String, Object> args;
+        final Result result;
+
+        PendingCall(MethodCall call, Map<String, Object> args, Result result) {
+            this.call = call;
+            this.args = args;
+            this.result = result;
+        }
+    }
+
+    // Calls waiting for a permission or activity result by request code, main thread only
+    private final Map<Integer, List<PendingCall>> mPending = new HashMap<>();
 
     private final Object tearDownLock = new Object();
 
@@ -88,6 +141,10 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
         channel.setMethodCallHandler(this);
         this.stateChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), NAMESPACE + "/state");
         stateChannel.setStreamHandler(stateStreamHandler);
+        this.metricsChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), NAMESPACE + "/metrics");
+        metricsChannel.setStreamHandler(metricsStreamHandler);
+        this.jobChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), NAMESPACE + "/jobs");
+        jobChannel.setStreamHandler(jobStreamHandler);
         this.context = (Application) pluginBinding.getApplicationContext();
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             this.mBluetoothManager = this.context.getSystemService(BluetoothManager.class);
@@ -95,8 +152,13 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
             this.mBluetoothManager = (BluetoothManager) this.context.getSystemService(Context.BLUETOOTH_SERVICE);
         this.mBluetoothAdapter = mBluetoothManager.getAdapter();
         if (mService == null) {
-            mService = new BluetoothService(mBluetoothAdapter, mHandler);
+            mService = new BluetoothService(mBluetoothAdapter, mHandler, new WriteProfileStore(context));
+        }
+        if (mScheduler == null) {
+            mScheduler = new PrintJobScheduler();
         }
+        StoredGraphics.getInstance().init(context);
+        DeviceRegistry.getInstance().init(context);
     }
 
     @Override
@@ -108,6 +170,20 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
         channel = null;
         stateChannel.setStreamHandler(null);
         stateChannel = null;
+        metricsChannel.setStreamHandler(null);
+        metricsChannel = null;
+        jobChannel.setStreamHandler(null);
+        jobChannel = null;
+        PrintMetrics.getInstance().setListener(null);
+        mJobs.setListener(null);
+        if (mScheduler != null) {
+            mScheduler.shutdown();
+            mScheduler = null;
+        }
+        if (mService != null) {
+            mService.shutdown();
+            mService = null;
+        }
         mBluetoothAdapter = null;
         mBluetoothManager = null;
     }
@@ -120,8 +196,8 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
         binding.addActivityResultListener(
                 (requestCode, resultCode, data) -> {
                     if (requestCode == REQUEST_ENABLE_BLUETOOTH) {
-                        if (pendingResult != null) {
-                            pendingResult.success(resultCode != 0);
+                        for (PendingCall pending : takePending(REQUEST_ENABLE_BLUETOOTH)) {
+                            pending.result.success(resultCode != 0);
                         }
                         return true;
                     }
@@ -180,12 +256,6 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
                 case Constant.MESSAGE_TOAST:
                     Log.d(TAG, msg.getData().getString(Constant.TOAST));
                     break;
-                case Constant.STATE_CONNECTED:
-                    pendingResult.success(true);
-                    break;
-                case Constant.CONN_STATE_DISCONNECT:
-                    pendingResult.success(false);
-                    break;
             }
         }
     };
@@ -216,7 +286,7 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
                 break;
             case "requestEnable":
                 if (!mBluetoothAdapter.isEnabled()) {
-                    pendingResult = result;
+                    addPending(REQUEST_ENABLE_BLUETOOTH, call, args, result);
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
                         if (ContextCompat.checkSelfPermission(activityBinding.getActivity(),
                                 Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
@@ -224,8 +294,6 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
                             ActivityCompat.requestPermissions(activityBinding.getActivity(), new String[]{
                                             Manifest.permission.BLUETOOTH_CONNECT,},
                                     REQUEST_ENABLE_BLUETOOTH);
-                            pendingCall = call;
-                            pendingResult = result;
                             break;
                         }
 
@@ -260,8 +328,7 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
                                         Manifest.permission.BLUETOOTH_CONNECT,
                                         Manifest.permission.ACCESS_FINE_LOCATION,},
                                 REQUEST_FINE_LOCATION_PERMISSIONS);
-                        pendingCall = call;
-                        pendingResult = result;
+                        addPending(REQUEST_FINE_LOCATION_PERMISSIONS, call, args, result);
                         break;
                     }
                 } else {
@@ -271,8 +338,7 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
 
                         ActivityCompat.requestPermissions(activityBinding.getActivity(),
                                 new String[]{Manifest.permission.ACCESS_COARSE_LOCATION, Manifest.permission.ACCESS_FINE_LOCATION}, REQUEST_COARSE_LOCATION_PERMISSIONS);
-                        pendingCall = call;
-                        pendingResult = result;
+                        addPending(REQUEST_COARSE_LOCATION_PERMISSIONS, call, args, result);
                         break;
                     }
                 }
@@ -291,7 +357,7 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
                                         Manifest.permission.BLUETOOTH_CONNECT,
                                         Manifest.permission.ACCESS_FINE_LOCATION,},
                                 REQUEST_DEVICES);
-                        pendingResult = result;
+                        addPending(REQUEST_DEVICES, call, args, result);
                         break;
                     }
                 } else {
@@ -301,13 +367,27 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
 
                         ActivityCompat.requestPermissions(activityBinding.getActivity(),
                                 new String[]{Manifest.permission.ACCESS_COARSE_LOCATION, Manifest.permission.ACCESS_FINE_LOCATION}, REQUEST_DEVICES);
-                        pendingResult = result;
+                        addPending(REQUEST_DEVICES, call, args, result);
                         break;
                     }
                 }
                 getDevices(result);
                 break;
 
+            case "findAndConnect":
+                findAndConnect(result, args);
+                break;
+            case "getKnownDevices":
+                result.success(DeviceRegistry.getInstance().getKnownDevices());
+                break;
+            case "forgetDevice":
+                if (args != null && args.containsKey("address")) {
+                    DeviceRegistry.getInstance().forget((String) args.get("address"));
+                    result.success(true);
+                } else {
+                    result.error("invalid_argument", "Argument 'address' not found", null);
+                }
+                break;
             case "stopScan":
                 stopScan();
                 result.success(null);
@@ -320,12 +400,21 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
                             activityBinding.getActivity(),
                             new String[]{Manifest.permission.BLUETOOTH_SCAN, Manifest.permission.BLUETOOTH_CONNECT},
                             REQUEST_CONNECT_PERMISSIONS);
-                    pendingResult = result;
-                    pendingArgs = args;
+                    addPending(REQUEST_CONNECT_PERMISSIONS, call, args, result);
                     break;
                 }
                 connect(result, args);
                 break;
+            case "cancelConnect":
+                if (args != null && args.containsKey("address")) {
+                    result.success(mService.cancelConnect((String) args.get("address")));
+                } else {
+                    result.error("invalid_argument", "Argument 'address' not found", null);
+                }
+                break;
+            case "setConnectTimeout":
+                setConnectTimeout(result, args);
+                break;
             case "disconnect":
                 result.success(disconnect());
                 break;
@@ -333,10 +422,82 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
                 result.success(destroy());
                 break;
             case "writeData":
-                writeData(result, args);
+                writeData(track(result, args), args);
                 break;
             case "printReceipt":
-                print(result, args);
+                print(track(result, args), args);
+                break;
+            case "printReceipts":
+                printReceipts(track(result, args), args);
+                break;
+            case "printLabel":
+                printLabel(track(result, args), args);
+                break;
+            case "printCpcl":
+                printCpcl(track(result, args), args);
+                break;
+            case "printToMany":
+                printToMany(track(result, args), args);
+                break;
+            case "preconnect":
+                preconnect(result, args);
+                break;
+            case "release":
+                release(result, args);
+                break;
+            case "setIdleTimeout":
+                setIdleTimeout(result, args);
+                break;
+            case "setAckTimeout":
+                setAckTimeout(result, args);
+                break;
+            case "getWriteProfile":
+                getWriteProfile(result, args);
+                break;
+            case "setWriteProfile":
+                setWriteProfile(result, args);
+                break;
+            case "getMetrics":
+                result.success(PrintMetrics.getInstance().snapshot());
+                if (args != null && Boolean.TRUE.equals(args.get("reset"))) {
+                    PrintMetrics.getInstance().reset();
+                }
+                break;
+            case "getRasterCacheStats":
+                result.success(RasterCache.getInstance().stats());
+                break;
+            case "configureRasterCache":
+                if (args != null && args.get("maxBytes") != null) {
+                    RasterCache.getInstance().setMaxBytes(((Number) args.get("maxBytes")).longValue());
+                }
+                result.success(RasterCache.getInstance().stats());
+                break;
+            case "clearRasterCache":
+                RasterCache.getInstance().clear();
+                result.success(true);
+                break;
+            case "configureScheduler":
+                configureScheduler(result, args);
+                break;
+            case "registerLogo":
+                registerLogo(result, args);
+                break;
+            case "removeLogo":
+                removeLogo(result, args);
+                break;
+            case "registerTemplate":
+                registerTemplate(result, args);
+                break;
+            case "unregisterTemplate":
+                if (args != null && args.get("id") != null) {
+                    mTemplates.remove((String) args.get("id"));
+                } else {
+                    mTemplates.clear();
+                }
+                result.success(true);
+                break;
+            case "printTemplate":
+                printTemplate(track(result, args), args);
                 break;
             default:
                 result.notImplemented();
@@ -346,14 +507,7 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
     }
 
     protected byte[] convertVectorByteToBytes(Vector<Byte> data) {
-        byte[] sendData = new byte[data.size()];
-        if (data.size() > 0) {
-            for (int i = 0; i < data.size(); ++i) {
-                sendData[i] = (Byte) data.get(i);
-            }
-        }
-
-        return sendData;
+        return PrintContent.toBytes(data);
     }
 
     @SuppressWarnings("unchecked")
@@ -364,13 +518,17 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
             if (list != null) {
 
                 String address = (String) args.get("address");
-                BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
                 // Attempt to connect to the device
-                AsyncTask.execute(() -> {
+                submit(result, address, () -> {
                     try {
-                        mService.connect(device);
-                        Vector<Byte> vectorData = PrintContent.mapToReceipt(config, list);
-                        mService.write(convertVectorByteToBytes(vectorData));
+                        long begin = System.nanoTime();
+                        byte[] bytes = PrintContent.mapToReceipt(config, list, address);
+                        PrintMetrics.record(PrintMetrics.PHASE_ENCODE, begin);
+                        mService.connect(address);
+                        mService.print(address, bytes);
+                        result.success(true);
+                    } catch (PrinterStatusException ex) {
+                        result.error(ex.getCode(), ex.getMessage(), null);
                     } catch (Exception ex) {
                         result.error("write_error", ex.getMessage(), exceptionToString(ex));
                     }
@@ -384,24 +542,333 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
     }
 
 
+    /**
+     * Print a TSC label. With "count" or "values" the layout is sent once
+     * for a whole batch: count prints that many labels numbered by the
+     * printer from a TSPL counter, values prints one label per entry with
+     * only its placeholder fields encoded.
+     */
+    @SuppressWarnings("unchecked")
+    private void printLabel(Result result, Map<String, Object> args) {
+        final Map<String, Object> config = args.get("config") == null ? new HashMap<>() : (Map<String, Object>) args.get("config");
+        final List<Map<String, Object>> list = (List<Map<String, Object>>) args.get("data");
+        final List<Map<String, Object>> values = (List<Map<String, Object>>) args.get("values");
+        final String address = (String) args.get("address");
+        if (list == null || address == null) {
+            result.error("invalid_argument", "Arguments 'address' and 'data' are required", null);
+            return;
+        }
+        submit(result, address, () -> {
+            try {
+                long begin = System.nanoTime();
+                byte[] bytes = values != null || config.get("count") != null
+                        ? PrintContent.mapToLabelBatch(config, list, values)
+                        : convertVectorByteToBytes(PrintContent.mapToLabel(config, list));
+                PrintMetrics.record(PrintMetrics.PHASE_ENCODE, begin);
+                mService.connect(address);
+                mService.printLabel(address, bytes);
+                result.success(true);
+            } catch (PrinterStatusException ex) {
+                result.error(ex.getCode(), ex.getMessage(), null);
+            } catch (Exception ex) {
+                result.error("write_error", ex.getMessage(), exceptionToString(ex));
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void printCpcl(Result result, Map<String, Object> args) {
+        final Map<String, Object> config = args.get("config") == null ? new HashMap<>() : (Map<String, Object>) args.get("config");
+        final List<Map<String, Object>> list = (List<Map<String, Object>>) args.get("data");
+        final String address = (String) args.get("address");
+        if (list == null || address == null) {
+            result.error("invalid_argument", "Arguments 'address' and 'data' are required", null);
+            return;
+        }
+        submit(result, address, () -> {
+            try {
+                long begin = System.nanoTime();
+                byte[] bytes = PrintContent.mapToCPCL(config, list);
+                PrintMetrics.record(PrintMetrics.PHASE_ENCODE, begin);
+                mService.connect(address);
+                mService.print(address, bytes);
+                result.success(true);
+            } catch (Exception ex) {
+                result.error("write_error", ex.getMessage(), exceptionToString(ex));
+            }
+        });
+    }
+
+    /**
+     * Print a batch of receipts over one connection in a single worker turn.
+     * Each job is {config, data} or {template, values} with an optional
+     * copies count; copies resend the bytes encoded once. All jobs and
+     * copies are written back to back and their acknowledgements matched
+     * in order afterwards. The result lists one status per job, with
+     * whether the printer acknowledged it; jobs after a failed write are
+     * skipped.
+     */
+    @SuppressWarnings("unchecked")
+    private void printReceipts(Result result, Map<String, Object> args) {
+        final List<Map<String, Object>> jobs = (List<Map<String, Object>>) args.get("jobs");
+        final String address = (String) args.get("address");
+        if (jobs == null || address == null) {
+            result.error("invalid_argument", "Arguments 'address' and 'jobs' are required", null);
+            return;
+        }
+        submit(result, address, () -> {
+            try {
+                mService.connect(address);
+            } catch (Exception ex) {
+                result.error("connect_error", ex.getMessage(), exceptionToString(ex));
+                return;
+            }
+            List<Map<String, Object>> statuses = new ArrayList<>(jobs.size());
+            // Every copy of every job encoded, and the job each belongs to
+            List<byte[]> payloads = new ArrayList<>();
+            List<Integer> owners = new ArrayList<>();
+            for (int i = 0; i < jobs.size(); i++) {
+                Map<String, Object> job = jobs.get(i);
+                Map<String, Object> status = new HashMap<>();
+                status.put("index", i);
+                statuses.add(status);
+                int copies = job.get("copies") == null ? 1 : Math.max(1, (int) job.get("copies"));
+                try {
+                    byte[] bytes = encodeJob(job, address);
+                    for (int c = 0; c < copies; c++) {
+                        payloads.add(bytes);
+                        owners.add(i);
+                    }
+                    status.put("bytes", bytes.length * copies);
+                } catch (Exception ex) {
+                    // Encoding failed; the other jobs are still sent
+                    status.put("status", "error");
+                    status.put("error", ex.getMessage());
+                }
+            }
+
+            BluetoothService.Batch batch = null;
+            Exception failure = null;
+            try {
+                batch = mService.printBatch(address, payloads);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failure = ex;
+            } catch (Exception ex) {
+                failure = ex;
+            }
+            for (int p = 0; p < payloads.size(); p++) {
+                Map<String, Object> status = statuses.get(owners.get(p));
+                if ("error".equals(status.get("status"))) continue;
+                int state = batch == null ? BluetoothService.Batch.FAILED : batch.states[p];
+                if (state == BluetoothService.Batch.FAILED) {
+                    Exception ex = batch == null ? failure : batch.errors[p];
+                    status.put("status", "error");
+                    status.put("error", ex instanceof InterruptedException ? "interrupted" : ex.getMessage());
+                    if (ex instanceof PrinterStatusException) {
+                        status.put("code", ((PrinterStatusException) ex).getCode());
+                    }
+                } else if (state == BluetoothService.Batch.SKIPPED) {
+                    status.put("status", "skipped");
+                } else {
+                    // A job is acknowledged when all its copies are
+                    boolean acked = state == BluetoothService.Batch.ACKNOWLEDGED
+                            && !Boolean.FALSE.equals(status.get("acknowledged"));
+                    status.put("status", "ok");
+                    status.put("acknowledged", acked);
+                }
+            }
+            result.success(statuses);
+        });
+    }
+
+    /**
+     * Send jobs to several printers at once. Every printer is served by its
+     * own worker and pooled connection, so the call takes as long as the
+     * slowest printer. Either {addresses, job} sends one job everywhere, or
+     * {jobs} maps each address to its own job. The result holds the total
+     * elapsed time and, per printer, the status, error, bytes and the
+     * queue, connect and write times.
+     */
+    @SuppressWarnings("unchecked")
+    private void printToMany(Result result, Map<String, Object> args) {
+        final Map<String, Map<String, Object>> targets = new LinkedHashMap<>();
+        final List<String> addresses = (List<String>) args.get("addresses");
+        final Map<String, Object> shared = (Map<String, Object>) args.get("job");
+        final Map<String, Map<String, Object>> jobs = (Map<String, Map<String, Object>>) args.get("jobs");
+        if (addresses != null && shared != null) {
+            for (String address : addresses) targets.put(address, shared);
+        }
+        if (jobs != null) targets.putAll(jobs);
+        if (targets.isEmpty()) {
+            result.error("invalid_argument", "Arguments 'addresses' and 'job', or 'jobs' are required", null);
+            return;
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        final Map<String, Map<String, Object>> printers = new ConcurrentHashMap<>();
+        final AtomicInteger remaining = new AtomicInteger(targets.size());
+        // A shared job without logo lines encodes the same for every printer
+        final byte[][] sharedBytes = new byte[1][];
+        final Runnable complete = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                Map<String, Object> ret = new HashMap<>();
+                ret.put("elapsed", SystemClock.elapsedRealtime() - start);
+                ret.put("printers", printers);
+                result.success(ret);
+            }
+        };
+
+        for (Map.Entry<String, Map<String, Object>> target : targets.entrySet()) {
+            final String address = target.getKey();
+            final Map<String, Object> job = target.getValue();
+            final Map<String, Object> status = new HashMap<>();
+            printers.put(address, status);
+            try {
+                mScheduler.submit(address, () -> {
+                    long started = SystemClock.elapsedRealtime();
+                    status.put("queued", started - start);
+                    try {
+                        byte[] bytes;
+                        if (job == shared && !hasLogo(job)) {
+                            synchronized (sharedBytes) {
+                                if (sharedBytes[0] == null) sharedBytes[0] = encodeJob(job, null);
+                                bytes = sharedBytes[0];
+                            }
+                        } else {
+                            bytes = encodeJob(job, address);
+                        }
+                        mService.connect(address);
+                        long connected = SystemClock.elapsedRealtime();
+                        status.put("connect", connected - started);
+                        int copies = job.get("copies") == null ? 1 : Math.max(1, (int) job.get("copies"));
+                        for (int c = 0; c < copies; c++) {
+                            mService.print(address, bytes);
+                        }
+                        status.put("write", SystemClock.elapsedRealtime() - connected);
+                        status.put("bytes", bytes.length * copies);
+                        status.put("status", "ok");
+                    } catch (Exception ex) {
+                        if (ex instanceof InterruptedException) Thread.currentThread().interrupt();
+                        status.put("status", "error");
+                        status.put("error", ex.getMessage());
+                        if (ex instanceof PrinterStatusException) {
+                            status.put("code", ((PrinterStatusException) ex).getCode());
+                        }
+                    } finally {
+                        status.put("total", SystemClock.elapsedRealtime() - start);
+                        complete.run();
+                    }
+                });
+            } catch (RuntimeException ex) {
+                // Full device queue
+                status.put("status", "error");
+                status.put("error", ex.getMessage());
+                complete.run();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean hasLogo(Map<String, Object> job) {
+        List<Map<String, Object>> list = (List<Map<String, Object>>) job.get("data");
+        if (list == null) return job.get("template") != null;
+        for (Map<String, Object> line : list) {
+            if ("logo".equals(line.get("type"))) return true;
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] encodeJob(Map<String, Object> job, String address) {
+        long begin = System.nanoTime();
+        if (job.get("bytes") != null) {
+            byte[] bytes = toByteArray(job.get("bytes"));
+            if (bytes == null) throw new IllegalArgumentException("Job bytes must be a Uint8List or List<int>");
+            PrintMetrics.record(PrintMetrics.PHASE_DECODE, begin);
+            return bytes;
+        }
+        try {
+            if (job.get("template") != null) {
+                ReceiptTemplate template = mTemplates.get((String) job.get("template"));
+                if (template == null) {
+                    throw new IllegalArgumentException("Template " + job.get("template") + " is not registered");
+                }
+                return template.render((Map<String, Object>) job.get("values"), address);
+            }
+            Map<String, Object> config = (Map<String, Object>) job.get("config");
+            List<Map<String, Object>> list = (List<Map<String, Object>>) job.get("data");
+            if (list == null) {
+                throw new IllegalArgumentException("Job has no data");
+            }
+            return PrintContent.mapToReceipt(config == null ? new HashMap<>() : config, list, address);
+        } finally {
+            PrintMetrics.record(PrintMetrics.PHASE_ENCODE, begin);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void registerTemplate(Result result, Map<String, Object> args) {
+        final String id = (String) args.get("id");
+        final Map<String, Object> config = (Map<String, Object>) args.get("config");
+        final List<Map<String, Object>> list = (List<Map<String, Object>>) args.get("data");
+        if (id == null || list == null) {
+            result.error("invalid_argument", "Arguments 'id' and 'data' are required", null);
+            return;
+        }
+        try {
+            mTemplates.put(id, new ReceiptTemplate(config == null ? new HashMap<>() : config, list));
+            result.success(true);
+        } catch (Exception ex) {
+            result.error("template_error", ex.getMessage(), exceptionToString(ex));
+        }
+    }
+
     @SuppressWarnings("unchecked")
+    private void printTemplate(Result result, Map<String, Object> args) {
+        final ReceiptTemplate template = mTemplates.get((String) args.get("id"));
+        if (template == null) {
+            result.error("template_not_found", "Template " + args.get("id") + " is not registered", null);
+            return;
+        }
+        final Map<String, Object> values = (Map<String, Object>) args.get("values");
+        String address = (String) args.get("address");
+        submit(result, address, () -> {
+            try {
+                long begin = System.nanoTime();
+                byte[] bytes = template.render(values, address);
+                PrintMetrics.record(PrintMetrics.PHASE_ENCODE, begin);
+                mService.connect(address);
+                mService.print(address, bytes);
+                result.success(true);
+            } catch (PrinterStatusException ex) {
+                result.error(ex.getCode(), ex.getMessage(), null);
+            } catch (Exception ex) {
+                result.error("write_error", ex.getMessage(), exceptionToString(ex));
+            }
+        });
+    }
+
     private void writeData(Result result, Map<String, Object> args) {
         if (args.containsKey("bytes")) {
-            final ArrayList<Integer> bytes = (ArrayList<Integer>) args.get("bytes");
-            // Check that we're actually connected before trying anything
-
-            Vector<Byte> vectorData = new Vector<>();
-            for (int i = 0; i < (bytes != null ? bytes.size() : 0); ++i) {
-                Integer val = bytes.get(i);
-                vectorData.add(Byte.valueOf(Integer.toString(val > 127 ? val - 256 : val)));
+            final long begin = System.nanoTime();
+            final byte[] bytes = toByteArray(args.get("bytes"));
+            if (bytes == null) {
+                result.error("invalid_argument", "Bytes param must be a Uint8List or List<int>", null);
+                return;
             }
+            // Decoded on the platform thread, before the job has a trace
+            final long decode = System.nanoTime() - begin;
             String address = (String) args.get("address");
-            BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
-            AsyncTask.execute(() -> {
+            submit(result, address, () -> {
                 try {
-                    mService.connect(device);
+                    PrintMetrics.add(PrintMetrics.PHASE_DECODE, decode);
+                    mService.connect(address);
 
-                    mService.write(convertVectorByteToBytes(vectorData));
+                    mService.print(address, bytes);
+                    result.success(true);
+                } catch (PrinterStatusException ex) {
+                    result.error(ex.getCode(), ex.getMessage(), null);
                 } catch (Exception ex) {
                     result.error("write_error", ex.getMessage(), exceptionToString(ex));
                 }
@@ -411,27 +878,272 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
         }
     }
 
+    /**
+     * Queue a job on the worker of its device, failing the call when the
+     * device queue is full.
+     */
+    private void submit(Result result, String address, Runnable job) {
+        if (result instanceof JobResult) {
+            final JobResult tracked = (JobResult) result;
+            final Runnable run = job;
+            job = () -> {
+                mJobs.running(tracked.id, tracked.address);
+                run.run();
+            };
+        }
+        try {
+            mScheduler.submit(address, job);
+        } catch (RejectedExecutionException ex) {
+            result.error("queue_full", ex.getMessage(), null);
+        }
+    }
+
+    /**
+     * Give a print or write call the job id in its "jobId" argument and
+     * report its progress on the job channel; the call itself still
+     * completes when the job does.
+     */
+    private Result track(Result result, Map<String, Object> args) {
+        long id = mJobs.jobId(args != null ? args.get("jobId") : null);
+        String address = args != null ? (String) args.get("address") : null;
+        mJobs.queued(id, address);
+        return new JobResult(id, address, result);
+    }
+
+    /**
+     * Result of a tracked job, reporting the outcome before completing the call.
+     */
+    private final class JobResult implements Result {
+        final long id;
+        final String address;
+        private final Result mResult;
+
+        JobResult(long id, String address, Result result) {
+            this.id = id;
+            this.address = address;
+            mResult = result;
+        }
+
+        @Override
+        public void success(Object value) {
+            mJobs.completed(id, address, value);
+            mResult.success(value);
+        }
+
+        @Override
+        public void error(String code, String message, Object details) {
+            mJobs.failed(id, address, code, message);
+            mResult.error(code, message, details);
+        }
+
+        @Override
+        public void notImplemented() {
+            mJobs.failed(id, address, "not_implemented", null);
+            mResult.notImplemented();
+        }
+    }
+
+    private void configureScheduler(Result result, Map<String, Object> args) {
+        int parallelism = args.get("parallelism") == null ? 0 : (int) args.get("parallelism");
+        int queueCapacity = args.get("queueCapacity") == null ? 0 : (int) args.get("queueCapacity");
+        mScheduler.configure(parallelism, queueCapacity);
+        result.success(true);
+    }
+
+    static byte[] toByteArray(Object bytes) {
+        return PrintContent.toByteArray(bytes);
+    }
+
+    /**
+     * Open the connection on the worker of the device. The call completes
+     * when the printer is connected, or fails with connect_timeout after
+     * "timeout" ms (the service default when absent) and with connect_error
+     * when every attempt was refused or cancelConnect was called.
+     */
     private void connect(Result result, Map<String, Object> args) {
         if (args.containsKey("address")) {
+            String address = (String) args.get("address");
+            Number timeout = (Number) args.get("timeout");
+            submit(result, address, () -> {
+                try {
+                    if (timeout != null) {
+                        mService.connect(address, timeout.longValue());
+                    } else {
+                        mService.connect(address);
+                    }
+                    result.success(true);
+                } catch (SocketTimeoutException ex) {
+                    result.error("connect_timeout", ex.getMessage(), null);
+                } catch (Exception ex) {
+                    result.error("connect_error", ex.getMessage(), exceptionToString(ex));
+                }
+            });
+        } else {
+            result.error("invalid_argument", "Argument 'address' not found", null);
+        }
+
+    }
+
+
+    /**
+     * Rasterize a logo and store it in the NV graphics memory of the printer
+     * under a two-character key. The upload happens once per printer; later
+     * receipts reference the key with a short print command. Printers that do
+     * not answer the NV capacity query get the logo inline instead.
+     */
+    private void registerLogo(Result result, Map<String, Object> args) {
+        final String address = (String) args.get("address");
+        final String key = (String) args.get("key");
+        final String content = (String) args.get("content");
+        if (address == null || content == null || !StoredGraphics.isValidKey(key)) {
+            result.error("invalid_argument", "address, content and a two-character key are required", null);
+            return;
+        }
+        final int width = args.get("width") == null ? 576 : (int) args.get("width");
+        final int dither = RasterEngine.parseMode(args.get("dither"));
+        final int threshold = args.get("threshold") == null ? RasterEngine.DEFAULT_THRESHOLD : (int) args.get("threshold");
+        final boolean force = Boolean.TRUE.equals(args.get("force"));
+        submit(result, address, () -> {
             try {
+                StoredGraphics graphics = StoredGraphics.getInstance();
+                Raster raster = PrintContent.rasterize(content, width, dither, threshold);
+                if (raster == null) {
+                    result.error("invalid_argument", "image content could not be decoded", null);
+                    return;
+                }
+                graphics.putRaster(address, key, raster);
+                // Uploaded again when the image changed, so NV memory matches the inline fallback
+                String digest = StoredGraphics.digest(raster);
+                if (graphics.hasKey(address, key, digest) && !force) {
+                    result.success(true);
+                    return;
+                }
+                mService.connect(address);
+                Boolean supported = graphics.isSupported(address);
+                if (supported == null) {
+                    byte[] reply = mService.query(address, new EscEncoder().queryNvGraphicsCapacity().toByteArray(), StatusReader.REPLY_BLOCK, 1000);
+                    supported = reply != null && reply.length >= 2 && reply[0] == 0x37 && reply[1] == 0x30;
+                    graphics.setSupported(address, supported);
+                }
+                if (!supported) {
+                    result.success(false);
+                    return;
+                }
+                mService.write(address, new EscEncoder().defineNvGraphics(key, raster).toByteArray());
+                graphics.addKey(address, key, digest);
                 result.success(true);
             } catch (Exception ex) {
-                result.error("connect_error", ex.getMessage(), exceptionToString(ex));
+                result.error("write_error", ex.getMessage(), exceptionToString(ex));
+            }
+        });
+    }
+
+    private void removeLogo(Result result, Map<String, Object> args) {
+        final String address = (String) args.get("address");
+        final String key = (String) args.get("key");
+        if (address == null || !StoredGraphics.isValidKey(key)) {
+            result.error("invalid_argument", "address and a two-character key are required", null);
+            return;
+        }
+        submit(result, address, () -> {
+            try {
+                StoredGraphics graphics = StoredGraphics.getInstance();
+                if (graphics.hasKey(address, key)) {
+                    mService.connect(address);
+                    mService.write(address, new EscEncoder().deleteNvGraphics(key).toByteArray());
+                    graphics.removeKey(address, key);
+                }
+                result.success(true);
+            } catch (Exception ex) {
+                result.error("write_error", ex.getMessage(), exceptionToString(ex));
             }
+        });
+    }
+
+    private void preconnect(Result result, Map<String, Object> args) {
+        if (args.containsKey("address")) {
+            String address = (String) args.get("address");
+            submit(result, address, () -> {
+                try {
+                    mService.preconnect(address);
+                    result.success(true);
+                } catch (Exception ex) {
+                    result.error("connect_error", ex.getMessage(), exceptionToString(ex));
+                }
+            });
         } else {
             result.error("invalid_argument", "Argument 'address' not found", null);
         }
+    }
+
+    private void release(Result result, Map<String, Object> args) {
+        String address = args == null ? null : (String) args.get("address");
+        if (address != null) {
+            // Behind the queued jobs of the printer; the close may wait for its replies
+            submit(result, address, () -> {
+                mService.release(address);
+                result.success(true);
+            });
+        } else {
+            mService.stop();
+            result.success(true);
+        }
+    }
+
+    private void setIdleTimeout(Result result, Map<String, Object> args) {
+        if (args.containsKey("timeout")) {
+            mService.setIdleTimeout(((Number) args.get("timeout")).longValue());
+            result.success(true);
+        } else {
+            result.error("invalid_argument", "Argument 'timeout' not found", null);
+        }
+    }
 
+    private void setConnectTimeout(Result result, Map<String, Object> args) {
+        if (args != null && args.get("timeout") != null) {
+            mService.setConnectTimeout(((Number) args.get("timeout")).longValue());
+            result.success(true);
+        } else {
+            result.error("invalid_argument", "Argument 'timeout' not found", null);
+        }
     }
 
+    private void setAckTimeout(Result result, Map<String, Object> args) {
+        if (args != null && args.get("timeout") != null) {
+            mService.setAckTimeout(((Number) args.get("timeout")).longValue());
+            result.success(true);
+        } else {
+            result.error("invalid_argument", "Argument 'timeout' not found", null);
+        }
+    }
 
-    static private boolean checkIsDeviceConnected(BluetoothDevice device) {
-        try {
-            java.lang.reflect.Method method;
-            method = device.getClass().getMethod("isConnected");
-            return (boolean) (Boolean) method.invoke(device);
-        } catch (Exception ex) {
-            return false;
+    private void getWriteProfile(Result result, Map<String, Object> args) {
+        if (args.containsKey("address")) {
+            result.success(mService.getWriteProfiles().get((String) args.get("address")).toMap());
+        } else {
+            result.error("invalid_argument", "Argument 'address' not found", null);
+        }
+    }
+
+    private void setWriteProfile(Result result, Map<String, Object> args) {
+        if (args.containsKey("address")) {
+            String address = (String) args.get("address");
+            WriteProfileStore profiles = mService.getWriteProfiles();
+            if (Boolean.TRUE.equals(args.get("reset"))) {
+                profiles.reset(address);
+            } else {
+                WriteProfile profile = profiles.get(address);
+                if (args.get("chunkSize") != null)
+                    profile.chunkSize = WriteProfile.clamp((int) args.get("chunkSize"), WriteProfile.MIN_CHUNK_SIZE, WriteProfile.MAX_CHUNK_SIZE);
+                if (args.get("delay") != null)
+                    profile.delayMs = WriteProfile.clamp((int) args.get("delay"), 0, WriteProfile.MAX_DELAY_MS);
+                if (args.get("adaptive") != null)
+                    profile.adaptive = (boolean) args.get("adaptive");
+                profiles.configure(address, profile);
+            }
+            result.success(profiles.get(address).toMap());
+        } else {
+            result.error("invalid_argument", "Argument 'address' not found", null);
         }
     }
 
@@ -442,7 +1154,7 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
             ret.put("address", device.getAddress());
             ret.put("name", device.getName());
             ret.put("type", device.getType());
-            ret.put("isConnected", checkIsDeviceConnected(device));
+            ret.put("isConnected", DeviceRegistry.getInstance().isConnected(device));
             devices.add(ret);
         }
 
@@ -478,55 +1190,196 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
         Log.d(TAG, "start scan ");
 
         try {
-            startScan();
+            Map<String, Object> args = call.arguments();
+            long interval = args == null || args.get("interval") == null ? ScanAggregator.DEFAULT_INTERVAL_MS : ((Number) args.get("interval")).longValue();
+            int rssiDelta = args == null || args.get("rssiDelta") == null ? ScanAggregator.DEFAULT_RSSI_DELTA : (int) args.get("rssiDelta");
+            mScanAggregator.reset(interval, rssiDelta);
+            startScan(args);
             result.success(null);
         } catch (Exception e) {
             result.error("startScan", e.getMessage(), null);
         }
     }
 
-    private void invokeMethodUIThread(final BluetoothDevice device) {
-        final Map<String, Object> ret = new HashMap<>();
-        ret.put("address", device.getAddress());
-        ret.put("name", device.getName());
-        ret.put("type", device.getType());
-        ret.put("isConnected", checkIsDeviceConnected(device));
-
-        new Handler(Looper.getMainLooper()).post(() -> {
-            synchronized (tearDownLock) {
-                //Could already be teared down at this moment
-                if (channel != null) {
-                    channel.invokeMethod("ScanResult", ret);
-                } else {
-                    Log.w(TAG, "Tried to call " + "ScanResult" + " on closed channel");
-                }
-            }
-        });
-    }
+    // Software filter for name prefixes, which ScanFilter cannot express
+    private volatile String mScanNamePrefix;
 
     private final ScanCallback mScanCallback = new ScanCallback() {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
+            onScanResult(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (ScanResult result : results) {
+                onScanResult(result);
+            }
+        }
+
+        private void onScanResult(ScanResult result) {
             BluetoothDevice device = result.getDevice();
             if (device != null && device.getName() != null) {
-                invokeMethodUIThread(device);
+                String prefix = mScanNamePrefix;
+                if (prefix == null || device.getName().startsWith(prefix)) {
+                    mScanAggregator.offer(device, result.getRssi());
+                }
             }
         }
     };
 
-    private void startScan() throws IllegalStateException {
+    /**
+     * Start a BLE scan. Filters run on the Bluetooth controller so that
+     * unrelated devices do not wake the app: every address in "addresses"
+     * and every UUID in "serviceUuids" becomes a ScanFilter, and a device
+     * matching any of them is reported. "name" matches the full name in
+     * the controller, "namePrefix" is checked here. "scanMode" takes the
+     * ScanSettings mode (0:lowPower 1:balanced 2:lowLatency -1:opportunistic);
+     * "reportDelay" in ms makes the controller batch results when supported.
+     */
+    @SuppressWarnings("unchecked")
+    private void startScan(Map<String, Object> args) throws IllegalStateException {
         BluetoothLeScanner scanner = mBluetoothAdapter.getBluetoothLeScanner();
         if (scanner == null)
             throw new IllegalStateException("getBluetoothLeScanner() is null. Is the Adapter on?");
+        if (args == null) args = new HashMap<>();
+
+        List<ScanFilter> filters = buildScanFilters(args);
+        mScanNamePrefix = (String) args.get("namePrefix");
 
         // 0:lowPower 1:balanced 2:lowLatency -1:opportunistic
+        int scanMode = args.get("scanMode") == null ? ScanSettings.SCAN_MODE_LOW_LATENCY : (int) args.get("scanMode");
+        ScanSettings.Builder settings = new ScanSettings.Builder().setScanMode(scanMode);
+        long reportDelay = args.get("reportDelay") == null ? 0 : ((Number) args.get("reportDelay")).longValue();
+        if (reportDelay > 0 && mBluetoothAdapter.isOffloadedScanBatchingSupported()) {
+            settings.setReportDelay(reportDelay);
+        }
+        scanner.startScan(filters.isEmpty() ? null : filters, settings.build(), mScanCallback);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<ScanFilter> buildScanFilters(Map<String, Object> args) {
+        List<ScanFilter> filters = new ArrayList<>();
+        List<String> addresses = (List<String>) args.get("addresses");
+        if (addresses != null) {
+            for (String address : addresses) {
+                filters.add(new ScanFilter.Builder().setDeviceAddress(address.toUpperCase()).build());
+            }
+        }
+        List<String> uuids = (List<String>) args.get("serviceUuids");
+        if (uuids != null) {
+            for (String uuid : uuids) {
+                filters.add(new ScanFilter.Builder().setServiceUuid(ParcelUuid.fromString(uuid)).build());
+            }
+        }
+        String name = (String) args.get("name");
+        if (name != null) {
+            filters.add(new ScanFilter.Builder().setDeviceName(name).build());
+        }
+        return filters;
+    }
+
+    /**
+     * Scan for the first device matching the criteria of startScan, stop
+     * scanning as soon as it advertises and open the connection on its
+     * worker. A bonded device named by address is connected without
+     * scanning. The result is the device map plus the time spent finding
+     * ("found") and connecting ("connect") in ms.
+     */
+    @SuppressWarnings("unchecked")
+    private void findAndConnect(Result result, Map<String, Object> args) {
+        final long start = SystemClock.elapsedRealtime();
+        final long timeout = args.get("timeout") == null ? 10_000 : ((Number) args.get("timeout")).longValue();
+        final String prefix = (String) args.get("namePrefix");
+        final AtomicBoolean done = new AtomicBoolean();
+
+        List<String> addresses = (List<String>) args.get("addresses");
+        if (addresses != null && addresses.size() == 1 && args.get("serviceUuids") == null && args.get("name") == null) {
+            String address = addresses.get(0).toUpperCase();
+            for (BluetoothDevice device : mBluetoothAdapter.getBondedDevices()) {
+                if (address.equals(device.getAddress())) {
+                    connectFound(result, device, null, start, SystemClock.elapsedRealtime());
+                    return;
+                }
+            }
+        }
+
+        final BluetoothLeScanner scanner = mBluetoothAdapter.getBluetoothLeScanner();
+        if (scanner == null) {
+            result.error("findAndConnect", "getBluetoothLeScanner() is null. Is the Adapter on?", null);
+            return;
+        }
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final ScanCallback callback = new ScanCallback() {
+            @Override
+            public void onScanResult(int callbackType, ScanResult scanResult) {
+                BluetoothDevice device = scanResult.getDevice();
+                if (device == null) return;
+                if (prefix != null && (device.getName() == null || !device.getName().startsWith(prefix))) return;
+                if (!done.compareAndSet(false, true)) return;
+                long found = SystemClock.elapsedRealtime();
+                // Stop at once so the scan does not compete with the connect for radio time
+                scanner.stopScan(this);
+                handler.removeCallbacksAndMessages(null);
+                connectFound(result, device, scanResult.getRssi(), start, found);
+            }
+
+            @Override
+            public void onBatchScanResults(List<ScanResult> results) {
+                for (ScanResult scanResult : results) onScanResult(0, scanResult);
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+                if (done.compareAndSet(false, true)) {
+                    handler.removeCallbacksAndMessages(null);
+                    result.error("findAndConnect", "Scan failed with error " + errorCode, null);
+                }
+            }
+        };
+        handler.postDelayed(() -> {
+            if (done.compareAndSet(false, true)) {
+                scanner.stopScan(callback);
+                result.error("not_found", "No matching device found within " + timeout + " ms", null);
+            }
+        }, timeout);
+        List<ScanFilter> filters = buildScanFilters(args);
         ScanSettings settings = new ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
-        scanner.startScan(null, settings, mScanCallback);
+        try {
+            scanner.startScan(filters.isEmpty() ? null : filters, settings, callback);
+        } catch (SecurityException ex) {
+            if (done.compareAndSet(false, true)) {
+                handler.removeCallbacksAndMessages(null);
+                result.error("no_permissions", ex.getMessage(), null);
+            }
+        }
+    }
+
+    private void connectFound(Result result, BluetoothDevice device, Integer rssi, long start, long found) {
+        final String address = device.getAddress();
+        submit(result, address, () -> {
+            try {
+                mService.preconnect(device);
+                Map<String, Object> ret = new HashMap<>();
+                ret.put("address", address);
+                ret.put("name", device.getName());
+                ret.put("type", device.getType());
+                ret.put("isConnected", true);
+                ret.put("rssi", rssi);
+                ret.put("found", found - start);
+                ret.put("connect", SystemClock.elapsedRealtime() - found);
+                result.success(ret);
+            } catch (Exception ex) {
+                result.error("connect_error", ex.getMessage(), exceptionToString(ex));
+            }
+        });
     }
 
     private void stopScan() {
         BluetoothLeScanner scanner = mBluetoothAdapter.getBluetoothLeScanner();
         if (scanner != null) scanner.stopScan(mScanCallback);
+        mScanAggregator.flush();
+        DeviceRegistry.getInstance().saveScanned();
     }
 
     static private String exceptionToString(Exception ex) {
@@ -555,47 +1408,63 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
     }
 
 
+    private void addPending(int requestCode, MethodCall call, Map<String, Object> args, Result result) {
+        List<PendingCall> pending = mPending.get(requestCode);
+        if (pending == null) {
+            pending = new ArrayList<>();
+            mPending.put(requestCode, pending);
+        }
+        pending.add(new PendingCall(call, args, result));
+    }
+
+    private List<PendingCall> takePending(int requestCode) {
+        List<PendingCall> pending = mPending.remove(requestCode);
+        return pending != null ? pending : new ArrayList<>();
+    }
+
+    /**
+     * Every call waiting for the request is answered, so concurrent calls
+     * each get their own result.
+     */
     @Override
     public boolean onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
-        if (requestCode == REQUEST_FINE_LOCATION_PERMISSIONS) {
-            if (grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                startScan(pendingCall, pendingResult);
-            } else {
-                pendingResult.error("no_permissions", "this plugin requires location permissions for scanning", null);
-                pendingResult = null;
-            }
-            return true;
-        } else if (requestCode == REQUEST_COARSE_LOCATION_PERMISSIONS) {
-            if (grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                startScan(pendingCall, pendingResult);
-            } else {
-                pendingResult.error("no_permissions", "this plugin requires location permissions for scanning", null);
-                pendingResult = null;
+        boolean granted = grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED;
+        if (requestCode == REQUEST_FINE_LOCATION_PERMISSIONS || requestCode == REQUEST_COARSE_LOCATION_PERMISSIONS) {
+            for (PendingCall pending : takePending(requestCode)) {
+                if (granted) {
+                    startScan(pending.call, pending.result);
+                } else {
+                    pending.result.error("no_permissions", "this plugin requires location permissions for scanning", null);
+                }
             }
             return true;
         } else if (requestCode == REQUEST_CONNECT_PERMISSIONS) {
-            if (grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                connect(pendingResult, pendingArgs);
-            } else {
-                pendingResult.error("no_permissions", "this plugin requires  permissions for connecting", null);
-                pendingResult = null;
+            for (PendingCall pending : takePending(requestCode)) {
+                if (granted) {
+                    connect(pending.result, pending.args);
+                } else {
+                    pending.result.error("no_permissions", "this plugin requires  permissions for connecting", null);
+                }
             }
             return true;
         } else if (requestCode == REQUEST_DEVICES) {
-            if (grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                getDevices(pendingResult);
-            } else {
-                pendingResult.error("no_permissions", "this plugin requires  permissions for getting devices", null);
-                pendingResult = null;
+            for (PendingCall pending : takePending(requestCode)) {
+                if (granted) {
+                    getDevices(pending.result);
+                } else {
+                    pending.result.error("no_permissions", "this plugin requires  permissions for getting devices", null);
+                }
             }
             return true;
         } else if (requestCode == REQUEST_ENABLE_BLUETOOTH) {
-            if (grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+            if (granted) {
+                // The calls stay pending until the enable activity returns
                 Intent intent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
                 ActivityCompat.startActivityForResult(activityBinding.getActivity(), intent, REQUEST_ENABLE_BLUETOOTH, null);
             } else {
-                pendingResult.error("no_permissions", "this plugin requires  permissions for enable bluetooth", null);
-                pendingResult = null;
+                for (PendingCall pending : takePending(requestCode)) {
+                    pending.result.error("no_permissions", "this plugin requires  permissions for enable bluetooth", null);
+                }
             }
             return true;
         }
@@ -641,5 +1510,51 @@ public class FlutterBluetoothBasicPlugin implements FlutterPlugin, MethodCallHan
         }
     };
 
+    /**
+     * Sends the phase timings of every finished print job while listened to.
+     */
+    private final StreamHandler metricsStreamHandler = new StreamHandler() {
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+        private volatile EventSink sink;
+
+        @Override
+        public void onListen(Object o, EventSink eventSink) {
+            sink = eventSink;
+            PrintMetrics.getInstance().setListener(job -> mainHandler.post(() -> {
+                EventSink current = sink;
+                if (current != null) current.success(job);
+            }));
+        }
+
+        @Override
+        public void onCancel(Object o) {
+            PrintMetrics.getInstance().setListener(null);
+            sink = null;
+        }
+    };
+
+    /**
+     * Sends the status changes of tracked print jobs while listened to.
+     */
+    private final StreamHandler jobStreamHandler = new StreamHandler() {
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+        private volatile EventSink sink;
+
+        @Override
+        public void onListen(Object o, EventSink eventSink) {
+            sink = eventSink;
+            mJobs.setListener(status -> mainHandler.post(() -> {
+                EventSink current = sink;
+                if (current != null) current.success(status);
+            }));
+        }
+
+        @Override
+        public void onCancel(Object o) {
+            mJobs.setListener(null);
+            sink = null;
+        }
+    };
+
 
 }
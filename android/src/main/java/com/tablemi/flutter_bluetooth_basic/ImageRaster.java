@@ -0,0 +1,89 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Decodes encoded images straight to the print width and rasterizes them
+ * through {@link RasterEngine}. The decoder subsamples large images with
+ * inSampleSize so a full-size ARGB bitmap is never allocated, and pixels are
+ * read back in bands into a reused int[].
+ */
+public class ImageRaster {
+    /**
+     * Decode a PNG/JPEG/BMP and scale it to {@code width} dots.
+     *
+     * @return the scaled bitmap, or null if the data cannot be decoded
+     */
+    public static Bitmap decode(byte[] bytes, int width) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        // Largest power of two that still leaves at least the target width
+        int sample = 1;
+        while (options.outWidth / (sample * 2) >= width) {
+            sample *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sample;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inScaled = false;
+        Bitmap decoded = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (decoded == null) {
+            return null;
+        }
+        if (decoded.getWidth() == width) {
+            return decoded;
+        }
+        int height = Math.max(1, Math.round((float) decoded.getHeight() * width / decoded.getWidth()));
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, width, height, true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Decode and rasterize an encoded image to {@code width} dots.
+     *
+     * @return the raster, or null if the data cannot be decoded
+     */
+    public static Raster rasterize(byte[] bytes, int width, int mode, int threshold) {
+        int printWidth = (width + 7) / 8 * 8;
+        Bitmap bitmap = decode(bytes, printWidth);
+        if (bitmap == null) {
+            return null;
+        }
+        try {
+            return rasterize(bitmap, mode, threshold);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Rasterize a bitmap at its own size.
+     */
+    public static Raster rasterize(final Bitmap bitmap, int mode, int threshold) {
+        return RasterEngine.rasterize(new PixelSource() {
+            @Override
+            public int getWidth() {
+                return bitmap.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return bitmap.getHeight();
+            }
+
+            @Override
+            public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+                bitmap.getPixels(pixels, offset, stride, x, y, width, height);
+            }
+        }, mode, threshold);
+    }
+}
@@ -0,0 +1,136 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * In-memory printer link for throughput tests and benchmarks. Writes block
+ * for as long as a link of the configured rate needs to carry them, so the
+ * chunked writer sees the back pressure of a slow Bluetooth printer, and the
+ * status queries the service sends are answered with "no error": GS r 1
+ * with 0x00, DLE EOT n with 0x12 and ESC ! ? with 0x00. Needs no Android
+ * classes and runs on a plain JVM.
+ */
+public class LoopbackTransport implements Transport {
+    // Roughly what a classic SPP link to a receipt printer sustains
+    public static final int SLOW_LINK_BYTES_PER_SECOND = 10 * 1024;
+
+    private final int mBytesPerSecond;
+    private final PrintBuffer mCapture;
+    private final byte[] mReplies = new byte[64];
+    private int mReplyHead;
+    private int mReplyCount;
+    // Last two bytes written, to find queries split across chunks
+    private int mPrev1 = -1;
+    private int mPrev2 = -1;
+    private long mBytesWritten;
+    // When the simulated link has carried everything written so far
+    private long mBusyUntil;
+    private boolean mOpen;
+    private boolean mClosed;
+
+    /**
+     * @param bytesPerSecond link rate, 0 for no limit
+     */
+    public LoopbackTransport(int bytesPerSecond) {
+        this(bytesPerSecond, null);
+    }
+
+    /**
+     * @param bytesPerSecond link rate, 0 for no limit
+     * @param capture        receives every byte written, or null
+     */
+    public LoopbackTransport(int bytesPerSecond, PrintBuffer capture) {
+        mBytesPerSecond = Math.max(0, bytesPerSecond);
+        mCapture = capture;
+    }
+
+    @Override
+    public synchronized void connect(long timeoutMs) throws IOException {
+        if (mClosed) throw new IOException("Loopback closed");
+        mOpen = true;
+    }
+
+    @Override
+    public void cancel() {
+        close();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        long wait;
+        synchronized (this) {
+            if (!mOpen || mClosed) throw new IOException("Loopback is not open");
+            mBytesWritten += length;
+            if (mCapture != null) mCapture.write(data, offset, length);
+            for (int i = offset; i < offset + length; i++) {
+                respond(data[i] & 0xFF);
+            }
+            if (mBytesPerSecond == 0) return;
+            long now = System.nanoTime();
+            mBusyUntil = Math.max(now, mBusyUntil) + length * 1_000_000_000L / mBytesPerSecond;
+            wait = mBusyUntil - now;
+        }
+        try {
+            Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Loopback write interrupted");
+        }
+    }
+
+    private void respond(int b) {
+        if (mPrev2 == 0x1D && mPrev1 == 0x72 && b == 0x01) {
+            reply(0x00);
+        } else if (mPrev2 == 0x10 && mPrev1 == 0x04 && b >= 1 && b <= 4) {
+            reply(0x12);
+        } else if (mPrev2 == 0x1B && mPrev1 == 0x21 && b == 0x3F) {
+            reply(0x00);
+        }
+        mPrev2 = mPrev1;
+        mPrev1 = b;
+    }
+
+    private void reply(int b) {
+        if (mReplyCount == mReplies.length) return;
+        mReplies[(mReplyHead + mReplyCount++) % mReplies.length] = (byte) b;
+        notifyAll();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer) throws IOException {
+        try {
+            while (mReplyCount == 0 && !mClosed) wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Loopback read interrupted");
+        }
+        if (mReplyCount == 0) return -1;
+        int n = Math.min(buffer.length, mReplyCount);
+        for (int i = 0; i < n; i++) {
+            buffer[i] = mReplies[mReplyHead];
+            mReplyHead = (mReplyHead + 1) % mReplies.length;
+        }
+        mReplyCount -= n;
+        return n;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return mOpen && !mClosed;
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    public synchronized long getBytesWritten() {
+        return mBytesWritten;
+    }
+}
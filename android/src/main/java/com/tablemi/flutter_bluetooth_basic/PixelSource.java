@@ -0,0 +1,19 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+/**
+ * Read access to the ARGB pixels of an image, shaped after
+ * Bitmap.getPixels so that {@link RasterEngine} does not depend on the
+ * Android graphics classes.
+ */
+public interface PixelSource {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Copy a block of ARGB pixels into {@code pixels}.
+     *
+     * @param stride number of entries between rows in {@code pixels}
+     */
+    void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+}
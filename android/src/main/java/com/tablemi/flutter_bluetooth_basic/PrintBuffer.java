@@ -0,0 +1,100 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte array used by the command encoders. Bytes are stored
+ * unboxed, and the backing array can be written out without copying.
+ */
+public class PrintBuffer {
+    private byte[] mData;
+    private int mSize;
+
+    public PrintBuffer() {
+        this(4096);
+    }
+
+    public PrintBuffer(int capacity) {
+        mData = new byte[Math.max(16, capacity)];
+    }
+
+    private void ensure(int extra) {
+        int needed = mSize + extra;
+        if (needed > mData.length) {
+            mData = Arrays.copyOf(mData, Math.max(needed, mData.length << 1));
+        }
+    }
+
+    public PrintBuffer write(int b) {
+        ensure(1);
+        mData[mSize++] = (byte) b;
+        return this;
+    }
+
+    public PrintBuffer write(int b0, int b1) {
+        ensure(2);
+        mData[mSize++] = (byte) b0;
+        mData[mSize++] = (byte) b1;
+        return this;
+    }
+
+    public PrintBuffer write(int b0, int b1, int b2) {
+        ensure(3);
+        mData[mSize++] = (byte) b0;
+        mData[mSize++] = (byte) b1;
+        mData[mSize++] = (byte) b2;
+        return this;
+    }
+
+    public PrintBuffer write(byte[] data) {
+        return write(data, 0, data.length);
+    }
+
+    public PrintBuffer write(byte[] data, int offset, int length) {
+        ensure(length);
+        System.arraycopy(data, offset, mData, mSize, length);
+        mSize += length;
+        return this;
+    }
+
+    /**
+     * Write the chars of {@code s} from {@code start} as single bytes up to
+     * {@code end} or the first char above 0x7F, whichever comes first.
+     *
+     * @return index of the first char not written
+     */
+    public int writeAscii(CharSequence s, int start, int end) {
+        ensure(end - start);
+        byte[] data = mData;
+        int size = mSize;
+        int i = start;
+        for (char c; i < end && (c = s.charAt(i)) < 0x80; i++) {
+            data[size++] = (byte) c;
+        }
+        mSize = size;
+        return i;
+    }
+
+    public PrintBuffer write(PrintBuffer other) {
+        return write(other.mData, 0, other.mSize);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Backing array; only the first {@link #size()} bytes are valid.
+     */
+    public byte[] array() {
+        return mData;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mData, mSize);
+    }
+
+    public void reset() {
+        mSize = 0;
+    }
+}
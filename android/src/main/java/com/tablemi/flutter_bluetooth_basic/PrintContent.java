@@ -3,135 +3,257 @@ package com.tablemi.flutter_bluetooth_basic;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.Base64;
+import android.util.Log;
 
-import com.gprinter.command.CpclCommand;
 import com.gprinter.command.EscCommand;
 import com.gprinter.command.LabelCommand;
 
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
 public class PrintContent {
     private static final String TAG = PrintContent.class.getSimpleName();
+    // 标签批量打印中引用 TSPL 计数器的内容
+    private static final String COUNTER = "{{counter}}";
+    // 批量标签下载到打印机 DRAM 的程序名
+    private static final String BATCH_PROGRAM = "FBBATCH.BAS";
+    // 程序结束标记，不能出现在程序内容中
+    private static final byte[] EOP = {'E', 'O', 'P'};
+    // QR 版本 1-40 在 M 级纠错、字节模式下的容量
+    private static final int[] QR_CAPACITY_M = {
+            14, 26, 42, 62, 84, 106, 122, 152, 180, 213, 251, 287, 331, 362, 412, 450, 504, 560, 624, 666,
+            711, 779, 857, 911, 997, 1059, 1125, 1190, 1264, 1370, 1452, 1538, 1628, 1722, 1809, 1911, 1989, 2099, 2213, 2331
+    };
 
     /**
      * 票据打印对象转换
      *
      * @return
      */
-    public static Vector<Byte> mapToReceipt(Map<String, Object> config, List<Map<String, Object>> list) {
-        EscCommand esc = new EscCommand();
+    public static byte[] mapToReceipt(Map<String, Object> config, List<Map<String, Object>> list) {
+        return mapToReceipt(config, list, null);
+    }
+
+    /**
+     * 票据打印对象转换，logo 行使用打印机 NV 存储中的图片
+     *
+     * @param address 打印机 MAC 地址，为 null 时 logo 以点阵图片打印
+     */
+    public static byte[] mapToReceipt(Map<String, Object> config, List<Map<String, Object>> list, String address) {
+        ReceiptOptions options = new ReceiptOptions(config);
+        EscEncoder esc = new EscEncoder().setCodePages(options.codePages);
+        beginReceipt(esc);
+        for (Map<String, Object> m : list) {
+            encodeLine(esc, m, (String) m.get("content"), options, address);
+        }
+        endReceipt(esc);
+        PrintMetrics.saved(esc.getRasterBytesSaved());
+        return esc.toByteArray();
+    }
+
+    /**
+     * 票据开头：初始化并走纸
+     */
+    static void beginReceipt(EscEncoder esc) {
         //初始化打印机
-        esc.addInitializePrinter();
+        esc.initializePrinter();
         //打印走纸多少个单位
-        esc.addPrintAndFeedLines((byte) 3);
+        esc.printAndFeedLines(3);
+    }
 
-        // {type:'text|barcode|qrcode|image', content:'', size:4, align: 0|1|2, weight: 0|1, width:0|1, height:0|1, underline:0|1, linefeed: 0|1}
-        for (Map<String, Object> m : list) {
-            String type = (String) m.get("type");
-            String content = (String) m.get("content");
-            int align = (int) (m.get("align") == null ? 0 : m.get("align"));
-            int size = (int) (m.get("size") == null ? 4 : m.get("size"));
-            int weight = (int) (m.get("weight") == null ? 0 : m.get("weight"));
-            int width = (int) (m.get("width") == null ? 0 : m.get("width"));
-            int height = (int) (m.get("height") == null ? 0 : m.get("height"));
-            int underline = (int) (m.get("underline") == null ? 0 : m.get("underline"));
-            int linefeed = (int) (m.get("linefeed") == null ? 0 : m.get("linefeed"));
-            int x = (int) (m.get("x") == null ? 0 : m.get("x")); //dpi: 1mm约为8个点
-            int y = (int) (m.get("y") == null ? 0 : m.get("y"));
+    /**
+     * 票据结尾：走纸、开钱箱、切纸
+     */
+    static void endReceipt(EscEncoder esc) {
+        //打印走纸n个单位
+        esc.printAndFeedLines(4);
 
-            EscCommand.ENABLE emphasized = weight == 0 ? EscCommand.ENABLE.OFF : EscCommand.ENABLE.ON;
-            /*EscCommand.ENABLE doublewidth = width == 0 ? EscCommand.ENABLE.OFF : EscCommand.ENABLE.ON;
-            EscCommand.ENABLE doubleheight = height == 0 ? EscCommand.ENABLE.OFF : EscCommand.ENABLE.ON;*/
-            EscCommand.ENABLE isUnderline = underline == 0 ? EscCommand.ENABLE.OFF : EscCommand.ENABLE.ON;
-            EscCommand.WIDTH_ZOOM width_zoom = EscCommand.WIDTH_ZOOM.MUL_1;
-            EscCommand.HEIGHT_ZOOM height_zoom = EscCommand.HEIGHT_ZOOM.MUL_1;
-            switch (width) {
-                case 0:
-                    width_zoom = EscCommand.WIDTH_ZOOM.MUL_1;
-                    break;
-                case 16:
-                    width_zoom = EscCommand.WIDTH_ZOOM.MUL_2;
-                    break;
-                case 32:
-                    width_zoom = EscCommand.WIDTH_ZOOM.MUL_3;
-                    break;
-                default:
-                    break;
-            }
+        // 开钱箱
+        esc.generatePulse(EscEncoder.PULSE_PIN_2, 255, 255);
+        //开启切刀
+        esc.cutPaper();
+        //添加缓冲区打印完成查询
+        byte[] bytes = {0x1D, 0x72, 0x01};
+        //添加用户指令
+        esc.userCommand(bytes);
+    }
 
-            switch (height) {
-                case 0:
-                    height_zoom = EscCommand.HEIGHT_ZOOM.MUL_1;
-                    break;
-                case 1:
-                    height_zoom = EscCommand.HEIGHT_ZOOM.MUL_2;
-                    break;
-                case 2:
-                    height_zoom = EscCommand.HEIGHT_ZOOM.MUL_3;
-                    break;
-                default:
-                    break;
-            }
+    /**
+     * 转换一行票据内容
+     *
+     * {type:'text|barcode|qrcode|image|logo', content:'', size:4, align: 0|1|2, weight: 0|1, width:0|1, height:0|1, underline:0|1, linefeed: 0|1}
+     *
+     * @param content 行内容，模板中为替换变量后的内容
+     */
+    static void encodeLine(EscEncoder esc, Map<String, Object> m, String content, ReceiptOptions options, String address) {
+        String type = (String) m.get("type");
+        int align = (int) (m.get("align") == null ? 0 : m.get("align"));
+        int size = (int) (m.get("size") == null ? 4 : m.get("size"));
+        int weight = (int) (m.get("weight") == null ? 0 : m.get("weight"));
+        int width = (int) (m.get("width") == null ? 0 : m.get("width"));
+        int height = (int) (m.get("height") == null ? 0 : m.get("height"));
+        int underline = (int) (m.get("underline") == null ? 0 : m.get("underline"));
+        int linefeed = (int) (m.get("linefeed") == null ? 0 : m.get("linefeed"));
+        int x = (int) (m.get("x") == null ? 0 : m.get("x")); //dpi: 1mm约为8个点
 
-            // 设置打印位置
-            if (x == 0)
-                esc.addSelectJustification(align == 0 ? EscCommand.JUSTIFICATION.LEFT : (align == 1 ? EscCommand.JUSTIFICATION.CENTER : EscCommand.JUSTIFICATION.RIGHT));
+        boolean emphasized = weight != 0;
+        boolean isUnderline = underline != 0;
+        int widthZoom = 1;
+        int heightZoom = 1;
+        switch (width) {
+            case 16:
+                widthZoom = 2;
+                break;
+            case 32:
+                widthZoom = 3;
+                break;
+            default:
+                break;
+        }
 
-            if ("text".equals(type)) {
-                // 设置为倍高倍宽
-                esc.addSelectPrintModes(EscCommand.FONT.FONTA, emphasized, EscCommand.ENABLE.OFF, EscCommand.ENABLE.OFF, isUnderline);
-                esc.addSetCharcterSize(width_zoom, height_zoom);
-                if (x > 0)
-                    esc.addSetAbsolutePrintPosition((short) x);
-                esc.addText(content);
-                // 取消倍高倍宽
-                esc.addSelectPrintModes(EscCommand.FONT.FONTA, EscCommand.ENABLE.OFF, EscCommand.ENABLE.OFF, EscCommand.ENABLE.OFF, EscCommand.ENABLE.OFF);
-            } else if ("barcode".equals(type)) {
-                esc.addSelectPrintingPositionForHRICharacters(EscCommand.HRI_POSITION.BELOW);
-                // 设置条码可识别字符位置在条码下方
-                // 设置条码高度为60点
-                esc.addSetBarcodeHeight((byte) 60);
-                // 设置条码宽窄比为2
-                esc.addSetBarcodeWidth((byte) 2);
-                // 打印Code128码
-                esc.addCODE128(esc.genCodeB(content));
-            } else if ("qrcode".equals(type)) {
-                // 设置纠错等级
-                esc.addSelectErrorCorrectionLevelForQRCode((byte) 0x31);
-                // 设置qrcode模块大小
-                esc.addSelectSizeOfModuleForQRCode((byte) size);
-                // 设置qrcode内容
-                esc.addStoreQRCodeData(content);
-                // 打印QRCode
-                esc.addPrintQRCode();
-            } else if ("image".equals(type)) {
-                byte[] bytes = Base64.decode(content, Base64.DEFAULT);
-                Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-                esc.addRastBitImage(bitmap, 576, 0);
-            }
+        switch (height) {
+            case 1:
+                heightZoom = 2;
+                break;
+            case 2:
+                heightZoom = 3;
+                break;
+            default:
+                break;
+        }
 
-            if (linefeed == 1) {
-                //打印并换行
-                esc.addPrintAndLineFeed();
+        // 设置打印位置
+        if (x == 0)
+            esc.selectJustification(align == 0 ? EscEncoder.JUSTIFICATION_LEFT : (align == 1 ? EscEncoder.JUSTIFICATION_CENTER : EscEncoder.JUSTIFICATION_RIGHT));
+
+        if ("text".equals(type)) {
+            // 设置为倍高倍宽
+            esc.selectPrintModes(false, emphasized, false, false, isUnderline);
+            esc.setCharacterSize(widthZoom, heightZoom);
+            if (x > 0)
+                esc.setAbsolutePrintPosition(x);
+            esc.text(content);
+            // 取消倍高倍宽
+            esc.selectPrintModes(false, false, false, false, false);
+        } else if ("barcode".equals(type)) {
+            esc.selectHriPosition(EscEncoder.HRI_BELOW);
+            // 设置条码可识别字符位置在条码下方
+            // 设置条码高度为60点
+            esc.setBarcodeHeight(60);
+            // 设置条码宽窄比为2
+            esc.setBarcodeWidth(2);
+            // 打印Code128码
+            esc.code128(content);
+        } else if ("qrcode".equals(type)) {
+            // 设置纠错等级
+            esc.qrErrorCorrection(0x31);
+            // 设置qrcode模块大小
+            esc.qrModuleSize(size);
+            // 设置qrcode内容
+            esc.qrStoreData(content);
+            // 打印QRCode
+            esc.qrPrint();
+        } else if ("image".equals(type)) {
+            Raster raster = rasterize(content, options.imageWidth, options.dither, options.threshold);
+            if (raster != null) {
+                rasterImage(esc, raster, options);
+            } else {
+                Log.d(TAG, "image content could not be decoded");
+            }
+        } else if ("logo".equals(type)) {
+            StoredGraphics graphics = StoredGraphics.getInstance();
+            if (address != null && Boolean.TRUE.equals(graphics.isSupported(address)) && graphics.hasKey(address, content)) {
+                // 打印已存入 NV 的图片
+                esc.printNvGraphics(content, 1, 1);
+            } else {
+                Raster raster = StoredGraphics.isValidKey(content) ? graphics.getRaster(address, content) : null;
+                if (raster != null) {
+                    rasterImage(esc, raster, options);
+                } else {
+                    Log.d(TAG, "logo " + content + " is not registered");
+                }
             }
+        }
 
+        if (linefeed == 1) {
+            //打印并换行
+            esc.printAndLineFeed();
         }
+    }
 
-        //打印走纸n个单位
-        esc.addPrintAndFeedLines((byte) 4);
+    /**
+     * 输出点阵图片，compactRaster 时跳过空白行并裁掉空白列
+     */
+    static void rasterImage(EscEncoder esc, Raster raster, ReceiptOptions options) {
+        if (options.compactRaster) {
+            esc.rasterImageCompact(raster, 0, options.bandRows(raster));
+        } else {
+            esc.rasterImage(raster, 0, options.bandRows(raster));
+        }
+    }
 
-        // 开钱箱
-        esc.addGeneratePlus(LabelCommand.FOOT.F2, (byte) 255, (byte) 255);
-        //开启切刀
-        esc.addCutPaper();
-        //添加缓冲区打印完成查询
-        byte[] bytes = {0x1D, 0x72, 0x01};
-        //添加用户指令
-        esc.addUserCommand(bytes);
+    /**
+     * 票据配置中与图片相关的参数
+     */
+    static class ReceiptOptions {
+        // 图片打印宽度(点): 384 / 576 / 832
+        final int imageWidth;
+        // 抖动算法: threshold | ordered | floyd
+        final int dither;
+        final int threshold;
+        // 每个 GS v 0 分段的行数，默认按打印机接收缓冲区大小计算
+        final int bandRows;
+        final int rasterBuffer;
+        // 压缩点阵: 空白行改为走纸，去掉每段两侧的空白字节；打印机不支持 ESC J 时关闭
+        final boolean compactRaster;
+        // 文字代码页，按优先顺序，如 ["CP858", "GB18030"]；默认只用 GB18030
+        final CodePage[] codePages;
+
+        @SuppressWarnings("unchecked")
+        ReceiptOptions(Map<String, Object> config) {
+            imageWidth = (int) (config.get("imageWidth") == null ? 576 : config.get("imageWidth"));
+            dither = RasterEngine.parseMode(config.get("dither"));
+            threshold = (int) (config.get("threshold") == null ? RasterEngine.DEFAULT_THRESHOLD : config.get("threshold"));
+            bandRows = (int) (config.get("bandRows") == null ? 0 : config.get("bandRows"));
+            rasterBuffer = (int) (config.get("rasterBuffer") == null ? 4096 : config.get("rasterBuffer"));
+            compactRaster = !Boolean.FALSE.equals(config.get("compactRaster"));
+            List<String> pages = (List<String>) config.get("codePages");
+            if (pages == null || pages.isEmpty()) {
+                codePages = null;
+            } else {
+                codePages = new CodePage[pages.size()];
+                for (int i = 0; i < codePages.length; i++) codePages[i] = CodePage.forName(pages.get(i));
+            }
+        }
 
-        return esc.getCommand();
+        int bandRows(Raster raster) {
+            return bandRows > 0 ? bandRows : rasterBuffer / raster.widthBytes;
+        }
+    }
+
+    /**
+     * 图片内容转换为点阵，相同内容直接使用缓存
+     */
+    static Raster rasterize(String content, int width, int dither, int threshold) {
+        RasterCache cache = RasterCache.getInstance();
+        String key = RasterCache.key(content, width, dither, threshold);
+        Raster raster = cache.get(key);
+        if (raster == null) {
+            long begin = System.nanoTime();
+            byte[] bytes = Base64.decode(content, Base64.DEFAULT);
+            PrintMetrics.record(PrintMetrics.PHASE_DECODE, begin);
+            begin = System.nanoTime();
+            raster = ImageRaster.rasterize(bytes, width, dither, threshold);
+            PrintMetrics.record(PrintMetrics.PHASE_RASTERIZE, begin);
+            if (raster != null) {
+                cache.put(key, raster);
+            }
+        }
+        return raster;
     }
 
     /**
@@ -141,7 +263,132 @@ public class PrintContent {
      */
     public static Vector<Byte> mapToLabel(Map<String, Object> config, List<Map<String, Object>> list) {
         LabelCommand tsc = new LabelCommand();
+        beginLabel(tsc, config);
+        // 清除打印缓冲区
+        tsc.addCls();
+
+        // {type:'text|barcode|qrcode|image', content:'', x:0,y:0}
+        for (Map<String, Object> m : list) {
+            addLabelLine(tsc, m, (String) m.get("content"));
+        }
+
+        // 打印标签
+        tsc.addPrint(1, 1);
+        endLabel(tsc);
+        // 发送数据
+        return tsc.getCommand();
+    }
+
+    /**
+     * 批量标签：标签版式只发送一次
+     *
+     * 计数模式：内容为 {{counter}} 的文字、条码行使用 TSPL 计数器 @0，
+     * 由打印机在每张标签后递增，一条 PRINT 指令打印 count 张。
+     * 数据模式：版式以 DOWNLOAD 程序发送一次，含 {{name}} 占位符的行
+     * 画字符串变量 V0$、V1$…；每张标签只发送变量赋值和 RUN。
+     * 静态部分含有 "EOP" 字节时无法放进程序，退回为每张标签发送完整版式。
+     *
+     * @param values 每张标签的占位符取值，为 null 时使用计数模式
+     */
+    public static byte[] mapToLabelBatch(Map<String, Object> config, List<Map<String, Object>> list, List<Map<String, Object>> values) {
+        LabelCommand tsc = new LabelCommand();
+        beginLabel(tsc, config);
+        if (values == null) {
+            int count = (int) (config.get("count") == null ? 1 : config.get("count"));
+            int step = (int) (config.get("counterStep") == null ? 1 : config.get("counterStep"));
+            String start = config.get("counterStart") == null ? "1" : config.get("counterStart").toString();
+            tsc.addUserCommand("SET COUNTER @0 " + step + "\r\n");
+            tsc.addUserCommand("@0=\"" + start + "\"\r\n");
+            tsc.addCls();
+            for (Map<String, Object> m : list) {
+                if (COUNTER.equals(m.get("content"))) {
+                    addCounterLine(tsc, m);
+                } else {
+                    addLabelLine(tsc, m, (String) m.get("content"));
+                }
+            }
+            // 每组一张，计数器按组递增
+            tsc.addPrint(count, 1);
+            endLabel(tsc);
+            return toBytes(tsc.getCommand());
+        }
 
+        PrintBuffer out = new PrintBuffer();
+        out.write(toBytes(tsc.getCommand()));
+        tsc.clrCommand();
+        // 静态部分：清除缓冲区并绘制不含占位符的行
+        tsc.addCls();
+        List<Map<String, Object>> variable = new ArrayList<>();
+        for (Map<String, Object> m : list) {
+            String content = (String) m.get("content");
+            if (content != null && content.contains("{{") && !"image".equals(m.get("type"))) {
+                variable.add(m);
+            } else {
+                addLabelLine(tsc, m, content);
+            }
+        }
+        byte[] layout = toBytes(tsc.getCommand());
+        tsc.clrCommand();
+
+        if (indexOf(layout, EOP) < 0) {
+            // 可变行画变量，程序只下载一次
+            for (int i = 0; i < variable.size(); i++) {
+                addVariableLine(tsc, variable.get(i), "V" + i + "$");
+            }
+            tsc.addPrint(1, 1);
+            tsc.addUserCommand("EOP\r\n");
+            String download = "DOWNLOAD \"" + BATCH_PROGRAM + "\"\r\n";
+            out.writeAscii(download, 0, download.length());
+            out.write(layout);
+            out.write(toBytes(tsc.getCommand()));
+            tsc.clrCommand();
+            for (Map<String, Object> label : values) {
+                for (int i = 0; i < variable.size(); i++) {
+                    String content = ReceiptTemplate.substitute((String) variable.get(i).get("content"), label);
+                    tsc.addUserCommand("V" + i + "$=\"" + quote(content) + "\"\r\n");
+                }
+                tsc.addUserCommand("RUN \"" + BATCH_PROGRAM + "\"\r\n");
+            }
+            tsc.addUserCommand("KILL \"" + BATCH_PROGRAM + "\"\r\n");
+        } else {
+            for (Map<String, Object> label : values) {
+                out.write(layout);
+                for (Map<String, Object> m : variable) {
+                    addLabelLine(tsc, m, ReceiptTemplate.substitute((String) m.get("content"), label));
+                }
+                tsc.addPrint(1, 1);
+                out.write(toBytes(tsc.getCommand()));
+                tsc.clrCommand();
+            }
+        }
+        endLabel(tsc);
+        out.write(toBytes(tsc.getCommand()));
+        return out.toByteArray();
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * TSPL 字符串常量：双引号写作 \["]，换行会结束指令，按空格打印
+     */
+    static String quote(String content) {
+        if (content == null) return "";
+        return content.replace("\"", "\\[\"]").replace('\r', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * 标签开头：尺寸、间隙、方向等设置
+     */
+    static void beginLabel(LabelCommand tsc, Map<String, Object> config) {
         int width = (int) (config.get("width") == null ? 60 : config.get("width")); // 单位：mm
         int height = (int) (config.get("height") == null ? 75 : config.get("height")); // 单位：mm
         int gap = (int) (config.get("gap") == null ? 0 : config.get("gap")); // 单位：mm
@@ -160,55 +407,194 @@ public class PrintContent {
         tsc.addDensity(LabelCommand.DENSITY.DNESITY4);
         // 撕纸模式开启
         tsc.addTear(EscCommand.ENABLE.ON);
-        // 清除打印缓冲区
-        tsc.addCls();
+    }
 
-        // {type:'text|barcode|qrcode|image', content:'', x:0,y:0}
+    /**
+     * 标签结尾：蜂鸣器、钱箱
+     */
+    static void endLabel(LabelCommand tsc) {
+        // 打印标签后 蜂鸣器响
+        tsc.addSound(2, 100);
+        //开启钱箱
+        tsc.addCashdrwer(LabelCommand.FOOT.F5, 255, 255);
+    }
+
+    static void addLabelLine(LabelCommand tsc, Map<String, Object> m, String content) {
+        String type = (String) m.get("type");
+        int x = (int) (m.get("x") == null ? 0 : m.get("x")); //dpi: 1mm约为8个点
+        int y = (int) (m.get("y") == null ? 0 : m.get("y"));
+
+        if ("text".equals(type)) {
+            // 绘制简体中文
+            tsc.addText(x, y, LabelCommand.FONTTYPE.SIMPLIFIED_CHINESE, LabelCommand.ROTATION.ROTATION_0, LabelCommand.FONTMUL.MUL_1, LabelCommand.FONTMUL.MUL_1, content);
+            //打印繁体
+            //tsc.addUnicodeText(10,32, LabelCommand.FONTTYPE.TRADITIONAL_CHINESE, LabelCommand.ROTATION.ROTATION_0, LabelCommand.FONTMUL.MUL_1, LabelCommand.FONTMUL.MUL_1,"BIG5碼繁體中文字元","BIG5");
+            //打印韩文
+            //tsc.addUnicodeText(10,60, LabelCommand.FONTTYPE.KOREAN, LabelCommand.ROTATION.ROTATION_0, LabelCommand.FONTMUL.MUL_1, LabelCommand.FONTMUL.MUL_1,"Korean 지아보 하성","EUC_KR");
+        } else if ("barcode".equals(type)) {
+            tsc.add1DBarcode(x, y, LabelCommand.BARCODETYPE.CODE128, 100, LabelCommand.READABEL.EANBEL, LabelCommand.ROTATION.ROTATION_0, content);
+        } else if ("qrcode".equals(type)) {
+            tsc.addQRCode(x, y, LabelCommand.EEC.LEVEL_L, 5, LabelCommand.ROTATION.ROTATION_0, content);
+        } else if ("image".equals(type)) {
+            byte[] bytes = Base64.decode(content, Base64.DEFAULT);
+            Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+            tsc.addBitmap(x, y, LabelCommand.BITMAP_MODE.OVERWRITE, 300, bitmap);
+        }
+    }
+
+    /**
+     * 引用计数器 @0 的行，变量名不能加引号，因此直接写 TSPL 指令
+     */
+    private static void addCounterLine(LabelCommand tsc, Map<String, Object> m) {
+        addVariableLine(tsc, m, "@0");
+    }
+
+    /**
+     * 内容为计数器或字符串变量的行
+     */
+    private static void addVariableLine(LabelCommand tsc, Map<String, Object> m, String name) {
+        String type = (String) m.get("type");
+        int x = (int) (m.get("x") == null ? 0 : m.get("x"));
+        int y = (int) (m.get("y") == null ? 0 : m.get("y"));
+        if ("barcode".equals(type)) {
+            tsc.addUserCommand("BARCODE " + x + "," + y + ",\"128\",100,1,0,2,2," + name + "\r\n");
+        } else if ("qrcode".equals(type)) {
+            tsc.addUserCommand("QRCODE " + x + "," + y + ",L,5,A,0," + name + "\r\n");
+        } else {
+            tsc.addUserCommand("TEXT " + x + "," + y + ",\"" + LabelCommand.FONTTYPE.SIMPLIFIED_CHINESE.getValue() + "\",0,1,1," + name + "\r\n");
+        }
+    }
+
+    static byte[] toBytes(Vector<Byte> data) {
+        byte[] bytes = new byte[data.size()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Uint8List arrives from the StandardMessageCodec as byte[] and is used as is;
+     * a plain List<int> is narrowed element by element without boxing into Byte.
+     */
+    static byte[] toByteArray(Object bytes) {
+        if (bytes instanceof byte[]) {
+            return (byte[]) bytes;
+        }
+        if (bytes instanceof List) {
+            final List<?> list = (List<?>) bytes;
+            final byte[] data = new byte[list.size()];
+            for (int i = 0; i < data.length; ++i) {
+                data[i] = (byte) ((Number) list.get(i)).intValue();
+            }
+            return data;
+        }
+        return null;
+    }
+
+    /**
+     * 面单打印对象转换
+     *
+     * {type:'text|barcode|qrcode|image', content:'', x:0, y:0, align:0|1|2, size:4, weight:0|1, width:0|16|32, height:0|1|2, underline:0|1}
+     * y 为 0 的行从上一行下方依次排列
+     *
+     * @return
+     */
+    public static byte[] mapToCPCL(Map<String, Object> config, List<Map<String, Object>> list) {
+        // 页面宽度(点)，页面高度为 0 时按内容计算
+        int pageWidth = (int) (config.get("width") == null ? 576 : config.get("width"));
+        int pageHeight = (int) (config.get("height") == null ? 0 : config.get("height"));
+        int resolution = (int) (config.get("resolution") == null ? 200 : config.get("resolution"));
+        int copies = (int) (config.get("copies") == null ? 1 : config.get("copies"));
+        int offset = (int) (config.get("offset") == null ? 0 : config.get("offset"));
+        // 字体、字号及其高度(点)
+        int font = (int) (config.get("font") == null ? 7 : config.get("font"));
+        int fontSize = (int) (config.get("fontSize") == null ? 0 : config.get("fontSize"));
+        int fontHeight = (int) (config.get("fontHeight") == null ? 24 : config.get("fontHeight"));
+        int lineSpacing = (int) (config.get("lineSpacing") == null ? 8 : config.get("lineSpacing"));
+        boolean form = Boolean.TRUE.equals(config.get("form"));
+        if (config.get("imageWidth") == null) {
+            config = new HashMap<>(config);
+            config.put("imageWidth", pageWidth);
+        }
+        ReceiptOptions options = new ReceiptOptions(config);
+
+        CpclEncoder body = new CpclEncoder();
+        int cursor = 0;
         for (Map<String, Object> m : list) {
             String type = (String) m.get("type");
             String content = (String) m.get("content");
-            int x = (int) (m.get("x") == null ? 0 : m.get("x")); //dpi: 1mm约为8个点
+            int align = (int) (m.get("align") == null ? 0 : m.get("align"));
+            int size = (int) (m.get("size") == null ? 0 : m.get("size"));
+            int x = (int) (m.get("x") == null ? 0 : m.get("x"));
             int y = (int) (m.get("y") == null ? 0 : m.get("y"));
+            if (y == 0) y = cursor;
+            int height = 0;
 
+            if (content == null) continue;
             if ("text".equals(type)) {
-                // 绘制简体中文
-                tsc.addText(x, y, LabelCommand.FONTTYPE.SIMPLIFIED_CHINESE, LabelCommand.ROTATION.ROTATION_0, LabelCommand.FONTMUL.MUL_1, LabelCommand.FONTMUL.MUL_1, content);
-                //打印繁体
-                //tsc.addUnicodeText(10,32, LabelCommand.FONTTYPE.TRADITIONAL_CHINESE, LabelCommand.ROTATION.ROTATION_0, LabelCommand.FONTMUL.MUL_1, LabelCommand.FONTMUL.MUL_1,"BIG5碼繁體中文字元","BIG5");
-                //打印韩文
-                //tsc.addUnicodeText(10,60, LabelCommand.FONTTYPE.KOREAN, LabelCommand.ROTATION.ROTATION_0, LabelCommand.FONTMUL.MUL_1, LabelCommand.FONTMUL.MUL_1,"Korean 지아보 하성","EUC_KR");
+                int widthZoom = m.get("width") == null ? 1 : ((int) m.get("width") == 16 ? 2 : ((int) m.get("width") == 32 ? 3 : 1));
+                int heightZoom = m.get("height") == null ? 1 : ((int) m.get("height") == 1 ? 2 : ((int) m.get("height") == 2 ? 3 : 1));
+                boolean bold = m.get("weight") != null && (int) m.get("weight") != 0;
+                boolean underline = m.get("underline") != null && (int) m.get("underline") != 0;
+                if (align != 0) body.justify(align);
+                if (widthZoom > 1 || heightZoom > 1) body.setMagnification(widthZoom, heightZoom);
+                if (bold) body.setBold(true);
+                if (underline) body.underline(true);
+                body.text(font, fontSize, x, y, content);
+                if (underline) body.underline(false);
+                if (bold) body.setBold(false);
+                if (widthZoom > 1 || heightZoom > 1) body.setMagnification(0, 0);
+                if (align != 0) body.justify(CpclEncoder.JUSTIFICATION_LEFT);
+                height = fontHeight * heightZoom;
             } else if ("barcode".equals(type)) {
-                tsc.add1DBarcode(x, y, LabelCommand.BARCODETYPE.CODE128, 100, LabelCommand.READABEL.EANBEL, LabelCommand.ROTATION.ROTATION_0, content);
+                if (align != 0) body.justify(align);
+                body.code128(2, 1, 60, x, y, content);
+                if (align != 0) body.justify(CpclEncoder.JUSTIFICATION_LEFT);
+                height = 60;
             } else if ("qrcode".equals(type)) {
-                tsc.addQRCode(x, y, LabelCommand.EEC.LEVEL_L, 5, LabelCommand.ROTATION.ROTATION_0, content);
+                int unit = size > 0 ? size : 4;
+                height = qrModules(content) * unit;
+                if (align != 0 && x == 0) x = align == 1 ? (pageWidth - height) / 2 : pageWidth - height;
+                body.qrCode(Math.max(0, x), y, unit, content);
             } else if ("image".equals(type)) {
-                byte[] bytes = Base64.decode(content, Base64.DEFAULT);
-                Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-                tsc.addBitmap(x, y, LabelCommand.BITMAP_MODE.OVERWRITE, 300, bitmap);
+                Raster raster = rasterize(content, options.imageWidth, options.dither, options.threshold);
+                if (raster == null) {
+                    Log.d(TAG, "image content could not be decoded");
+                    continue;
+                }
+                if (align != 0 && x == 0) {
+                    x = align == 1 ? (pageWidth - raster.widthDots()) / 2 : pageWidth - raster.widthDots();
+                }
+                if (options.compactRaster) {
+                    body.graphicsCompact(raster, Math.max(0, x), y, options.bandRows(raster));
+                } else {
+                    body.graphics(raster, Math.max(0, x), y, options.bandRows(raster));
+                }
+                height = raster.height;
             }
+            cursor = Math.max(cursor, y + height + lineSpacing);
         }
 
-        // 打印标签
-        tsc.addPrint(1, 1);
-        // 打印标签后 蜂鸣器响
-        tsc.addSound(2, 100);
-        //开启钱箱
-        tsc.addCashdrwer(LabelCommand.FOOT.F5, 255, 255);
-        // 发送数据
-        return tsc.getCommand();
+        PrintMetrics.saved(body.getRasterBytesSaved());
+        PrintBuffer page = new PrintBuffer(body.getBuffer().size() + 64);
+        CpclEncoder cpcl = new CpclEncoder(page);
+        cpcl.page(offset, resolution, pageHeight > 0 ? pageHeight : cursor, copies);
+        cpcl.pageWidth(pageWidth);
+        page.write(body.getBuffer());
+        if (form) cpcl.form();
+        cpcl.print();
+        return page.toByteArray();
     }
 
     /**
-     * 面单打印对象转换
-     *
-     * @return
+     * 估算二维码每边的模块数，用于排列后续内容
      */
-    public static Vector<Byte> mapToCPCL(Map<String, Object> config, List<Map<String, Object>> list) {
-        CpclCommand cpcl = new CpclCommand();
-
-
-        Vector<Byte> datas = cpcl.getCommand();
-        return datas;
+    static int qrModules(String content) {
+        int length = content.getBytes(Charset.forName("UTF-8")).length;
+        int version = 1;
+        while (version < QR_CAPACITY_M.length && QR_CAPACITY_M[version - 1] < length) version++;
+        return 17 + 4 * version;
     }
 
 }
@@ -0,0 +1,152 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs print jobs with one ordered worker per device address.
+ * Jobs for the same printer run strictly in FIFO order, jobs for different
+ * printers run in parallel up to the configured parallelism.
+ */
+public class PrintJobScheduler {
+    private static final String TAG = "PrintJobScheduler";
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Map<String, DeviceQueue> mQueues = new HashMap<>();
+    private int mQueueCapacity;
+
+    public PrintJobScheduler() {
+        this(DEFAULT_PARALLELISM, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param parallelism   maximum number of devices served at the same time
+     * @param queueCapacity maximum number of pending jobs per device
+     */
+    public PrintJobScheduler(int parallelism, int queueCapacity) {
+        final AtomicInteger count = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "bt-print-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+        mQueueCapacity = queueCapacity;
+    }
+
+    /**
+     * Change how many devices are served concurrently and how many jobs
+     * may wait per device. Jobs already queued are kept.
+     */
+    public synchronized void configure(int parallelism, int queueCapacity) {
+        if (parallelism > 0) {
+            if (parallelism > mExecutor.getMaximumPoolSize()) {
+                mExecutor.setMaximumPoolSize(parallelism);
+                mExecutor.setCorePoolSize(parallelism);
+            } else {
+                mExecutor.setCorePoolSize(parallelism);
+                mExecutor.setMaximumPoolSize(parallelism);
+            }
+        }
+        if (queueCapacity > 0) {
+            mQueueCapacity = queueCapacity;
+        }
+    }
+
+    /**
+     * Queue a job behind the previous jobs of the same device.
+     *
+     * @param address MAC address of the device the job is for
+     * @param job     the work to run
+     * @throws RejectedExecutionException if the device queue is full
+     */
+    public synchronized void submit(String address, Runnable job) {
+        DeviceQueue queue = mQueues.get(address);
+        if (queue == null) {
+            queue = new DeviceQueue(address);
+            mQueues.put(address, queue);
+        }
+        if (queue.jobs.size() >= mQueueCapacity) {
+            throw new RejectedExecutionException("Print queue for " + address + " is full");
+        }
+        queue.jobs.add(new Queued(job));
+        if (!queue.running) {
+            queue.running = true;
+            mExecutor.execute(queue);
+        }
+    }
+
+    /**
+     * Number of jobs waiting for a device, not counting the one running.
+     */
+    public synchronized int pending(String address) {
+        DeviceQueue queue = mQueues.get(address);
+        return queue == null ? 0 : queue.jobs.size();
+    }
+
+    /**
+     * Drop all queued jobs and stop the workers.
+     */
+    public synchronized void shutdown() {
+        mQueues.clear();
+        mExecutor.shutdownNow();
+    }
+
+    private static final class Queued {
+        final Runnable job;
+        final long enqueued = System.nanoTime();
+
+        Queued(Runnable job) {
+            this.job = job;
+        }
+    }
+
+    /**
+     * Runs one job of its device per turn and re-queues itself on the
+     * executor, so a busy printer does not starve the others.
+     */
+    private class DeviceQueue implements Runnable {
+        final String address;
+        final ArrayDeque<Queued> jobs = new ArrayDeque<>();
+        boolean running;
+
+        DeviceQueue(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public void run() {
+            Queued queued;
+            synchronized (PrintJobScheduler.this) {
+                queued = jobs.poll();
+            }
+            PrintMetrics.Trace trace = queued == null ? null : PrintMetrics.getInstance().begin(address, queued.enqueued);
+            try {
+                if (queued != null) queued.job.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Print job for " + address + " failed", e);
+            } finally {
+                if (trace != null) PrintMetrics.getInstance().end(trace);
+                synchronized (PrintJobScheduler.this) {
+                    if (jobs.isEmpty()) {
+                        running = false;
+                        mQueues.remove(address);
+                    } else if (!mExecutor.isShutdown()) {
+                        mExecutor.execute(this);
+                    }
+                }
+            }
+        }
+    }
+}
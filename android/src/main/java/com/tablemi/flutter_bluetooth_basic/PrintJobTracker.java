@@ -0,0 +1,85 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports the life of every print and write job under its job id: queued
+ * when the call is accepted, running when its worker picks it up, and then
+ * sent once its bytes are flushed, acked once the printer also answered
+ * the status query ending it, or failed. The caller picks the id so it can
+ * wait for the outcome before the call returns; calls without one get a
+ * negative id of their own.
+ */
+public class PrintJobTracker {
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_RUNNING = "running";
+    public static final String STATUS_SENT = "sent";
+    public static final String STATUS_ACKED = "acked";
+    public static final String STATUS_FAILED = "failed";
+
+    public interface Listener {
+        /**
+         * Called on the thread the job status changed on.
+         */
+        void onStatus(Map<String, Object> status);
+    }
+
+    private final AtomicLong mLastId = new AtomicLong();
+    private volatile Listener mListener;
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param requested the id sent by the caller, or null
+     */
+    public long jobId(Object requested) {
+        return requested instanceof Number ? ((Number) requested).longValue() : -mLastId.incrementAndGet();
+    }
+
+    public void queued(long id, String address) {
+        emit(status(id, address, STATUS_QUEUED));
+    }
+
+    public void running(long id, String address) {
+        emit(status(id, address, STATUS_RUNNING));
+    }
+
+    /**
+     * Report a job that completed. Called on its worker, the bytes it sent
+     * and whether the printer acknowledged them come from its trace.
+     *
+     * @param result the value the call completes with
+     */
+    public void completed(long id, String address, Object result) {
+        PrintMetrics.Trace trace = address != null ? PrintMetrics.current() : null;
+        boolean acked = trace != null && trace.isAcknowledged();
+        Map<String, Object> ret = status(id, address, acked ? STATUS_ACKED : STATUS_SENT);
+        if (trace != null) ret.put("bytes", trace.getBytes());
+        ret.put("result", result);
+        emit(ret);
+    }
+
+    public void failed(long id, String address, String code, String message) {
+        Map<String, Object> ret = status(id, address, STATUS_FAILED);
+        ret.put("code", code);
+        ret.put("error", message);
+        emit(ret);
+    }
+
+    private static Map<String, Object> status(long id, String address, String status) {
+        Map<String, Object> ret = new HashMap<>();
+        ret.put("jobId", id);
+        ret.put("address", address);
+        ret.put("status", status);
+        return ret;
+    }
+
+    private void emit(Map<String, Object> status) {
+        Listener listener = mListener;
+        if (listener != null) listener.onStatus(status);
+    }
+}
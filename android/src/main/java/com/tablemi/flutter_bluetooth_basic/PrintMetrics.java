@@ -0,0 +1,301 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide timings of the print path. Each job run by the
+ * {@link PrintJobScheduler} carries a trace on its worker thread; the
+ * stages add their time to it and at the end of the job the per-job phase
+ * totals go into fixed-bucket histograms of the device. Write chunks are
+ * recorded one by one. Stages running outside a job are not recorded.
+ */
+public class PrintMetrics {
+    public static final int PHASE_QUEUE = 0;
+    public static final int PHASE_DECODE = 1;
+    public static final int PHASE_ENCODE = 2;
+    public static final int PHASE_RASTERIZE = 3;
+    public static final int PHASE_CONNECT = 4;
+    public static final int PHASE_WRITE = 5;
+    public static final int PHASE_CHUNK = 6;
+    public static final int PHASE_JOB = 7;
+    private static final String[] PHASE_NAMES = {
+            "queue", "decode", "encode", "rasterize", "connect", "write", "chunk", "job"
+    };
+
+    // Upper bucket bounds in microseconds; the last bucket is open
+    private static final long[] BOUNDS_US = {
+            100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000,
+            250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000, 30_000_000
+    };
+
+    private static final PrintMetrics sInstance = new PrintMetrics();
+
+    public interface Listener {
+        /**
+         * Called on the worker thread when a job that sent bytes or failed ends.
+         */
+        void onJob(Map<String, Object> job);
+    }
+
+    /**
+     * Phase times of the job running on the current thread.
+     */
+    public static final class Trace {
+        final String address;
+        final long start;
+        final long[] phases = new long[PHASE_NAMES.length];
+        long bytes;
+        long bytesSaved;
+        int chunks;
+        boolean failed;
+        boolean acknowledged;
+
+        Trace(String address, long start) {
+            this.address = address;
+            this.start = start;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Whether the printer answered the status query ending the job.
+         */
+        public boolean isAcknowledged() {
+            return acknowledged;
+        }
+    }
+
+    private static final class Histogram {
+        final AtomicLongArray counts = new AtomicLongArray(BOUNDS_US.length + 1);
+        final AtomicLong sumUs = new AtomicLong();
+        final AtomicLong maxUs = new AtomicLong();
+
+        void add(long nanos) {
+            long us = nanos / 1_000;
+            int i = 0;
+            while (i < BOUNDS_US.length && us > BOUNDS_US[i]) i++;
+            counts.incrementAndGet(i);
+            sumUs.addAndGet(us);
+            long max = maxUs.get();
+            while (us > max && !maxUs.compareAndSet(max, us)) {
+                max = maxUs.get();
+            }
+        }
+
+        Map<String, Object> toMap() {
+            long[] buckets = new long[counts.length()];
+            long count = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = counts.get(i);
+                count += buckets[i];
+            }
+            Map<String, Object> ret = new HashMap<>();
+            ret.put("count", count);
+            ret.put("sum", sumUs.get() / 1000.0);
+            ret.put("max", maxUs.get() / 1000.0);
+            ret.put("p50", percentile(buckets, count, 0.50));
+            ret.put("p90", percentile(buckets, count, 0.90));
+            ret.put("p99", percentile(buckets, count, 0.99));
+            ret.put("buckets", buckets);
+            return ret;
+        }
+
+        // Upper bound of the bucket holding the quantile, in ms
+        private double percentile(long[] buckets, long count, double q) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS_US.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return Math.min(BOUNDS_US[i], maxUs.get()) / 1000.0;
+            }
+            return maxUs.get() / 1000.0;
+        }
+    }
+
+    private static final class DeviceMetrics {
+        final Histogram[] phases = new Histogram[PHASE_NAMES.length];
+        final AtomicLong jobs = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong bytesSaved = new AtomicLong();
+        final AtomicLong writeNanos = new AtomicLong();
+
+        DeviceMetrics() {
+            for (int i = 0; i < phases.length; i++) phases[i] = new Histogram();
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> phaseMap = new HashMap<>();
+            for (int i = 0; i < phases.length; i++) phaseMap.put(PHASE_NAMES[i], phases[i].toMap());
+            Map<String, Object> ret = new HashMap<>();
+            ret.put("jobs", jobs.get());
+            ret.put("failures", failures.get());
+            ret.put("bytes", bytes.get());
+            ret.put("bytesSaved", bytesSaved.get());
+            ret.put("bytesPerSecond", rate(bytes.get(), writeNanos.get()));
+            ret.put("phases", phaseMap);
+            return ret;
+        }
+    }
+
+    private final ThreadLocal<Trace> mCurrent = new ThreadLocal<>();
+    private final ConcurrentHashMap<String, DeviceMetrics> mDevices = new ConcurrentHashMap<>();
+    private volatile Listener mListener;
+
+    public static PrintMetrics getInstance() {
+        return sInstance;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Start the trace of a job on the current thread.
+     *
+     * @param enqueued System.nanoTime() when the job was queued
+     */
+    public Trace begin(String address, long enqueued) {
+        long now = System.nanoTime();
+        Trace trace = new Trace(address, enqueued);
+        trace.phases[PHASE_QUEUE] = now - enqueued;
+        mCurrent.set(trace);
+        return trace;
+    }
+
+    /**
+     * End the trace of the current thread and add it to the histograms of
+     * its device. Jobs that neither sent bytes nor failed, such as a
+     * preconnect, only count towards the connect phase.
+     */
+    public void end(Trace trace) {
+        mCurrent.remove();
+        trace.phases[PHASE_JOB] = System.nanoTime() - trace.start;
+        DeviceMetrics device = device(trace.address);
+        boolean job = trace.bytes > 0 || trace.failed;
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            if (i == PHASE_CHUNK) continue;
+            if (job || (i == PHASE_CONNECT && trace.phases[i] > 0)) device.phases[i].add(trace.phases[i]);
+        }
+        if (!job) return;
+        device.jobs.incrementAndGet();
+        if (trace.failed) device.failures.incrementAndGet();
+        device.bytes.addAndGet(trace.bytes);
+        device.bytesSaved.addAndGet(trace.bytesSaved);
+        device.writeNanos.addAndGet(trace.phases[PHASE_WRITE]);
+
+        Listener listener = mListener;
+        if (listener != null) {
+            Map<String, Object> ret = new HashMap<>();
+            ret.put("address", trace.address);
+            for (int i = 0; i < PHASE_NAMES.length; i++) {
+                if (i != PHASE_CHUNK) ret.put(PHASE_NAMES[i], trace.phases[i] / 1e6);
+            }
+            ret.put("bytes", trace.bytes);
+            ret.put("bytesSaved", trace.bytesSaved);
+            ret.put("chunks", trace.chunks);
+            ret.put("bytesPerSecond", rate(trace.bytes, trace.phases[PHASE_WRITE]));
+            ret.put("failed", trace.failed);
+            listener.onJob(ret);
+        }
+    }
+
+    /**
+     * Add the time since {@code start} to a phase of the current job.
+     *
+     * @param start System.nanoTime() when the stage began
+     */
+    public static void record(int phase, long start) {
+        add(phase, System.nanoTime() - start);
+    }
+
+    /**
+     * Add a duration measured elsewhere, e.g. before the job was queued.
+     */
+    public static void add(int phase, long nanos) {
+        Trace trace = sInstance.mCurrent.get();
+        if (trace != null) trace.phases[phase] += nanos;
+    }
+
+    /**
+     * Record one write chunk of the current job.
+     */
+    public static void recordChunk(int bytes, long nanos) {
+        Trace trace = sInstance.mCurrent.get();
+        if (trace == null) return;
+        trace.bytes += bytes;
+        trace.chunks++;
+        sInstance.device(trace.address).phases[PHASE_CHUNK].add(nanos);
+    }
+
+    /**
+     * Add the bytes the encoder saved, e.g. by compacting images, to the current job.
+     */
+    public static void saved(long bytes) {
+        Trace trace = sInstance.mCurrent.get();
+        if (trace != null) trace.bytesSaved += bytes;
+    }
+
+    /**
+     * Mark the current job as acknowledged by the printer.
+     */
+    public static void acknowledged() {
+        Trace trace = sInstance.mCurrent.get();
+        if (trace != null) trace.acknowledged = true;
+    }
+
+    /**
+     * Return the trace of the job running on the current thread, or null.
+     */
+    public static Trace current() {
+        return sInstance.mCurrent.get();
+    }
+
+    /**
+     * Mark the current job as failed on the link.
+     */
+    public static void failed() {
+        Trace trace = sInstance.mCurrent.get();
+        if (trace != null) trace.failed = true;
+    }
+
+    private DeviceMetrics device(String address) {
+        DeviceMetrics device = mDevices.get(address);
+        if (device == null) {
+            device = new DeviceMetrics();
+            DeviceMetrics other = mDevices.putIfAbsent(address, device);
+            if (other != null) device = other;
+        }
+        return device;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> devices = new HashMap<>();
+        for (Map.Entry<String, DeviceMetrics> entry : mDevices.entrySet()) {
+            devices.put(entry.getKey(), entry.getValue().toMap());
+        }
+        List<Double> bounds = new ArrayList<>(BOUNDS_US.length);
+        for (long bound : BOUNDS_US) bounds.add(bound / 1000.0);
+        Map<String, Object> ret = new HashMap<>();
+        ret.put("devices", devices);
+        ret.put("bucketBounds", bounds);
+        return ret;
+    }
+
+    public void reset() {
+        mDevices.clear();
+    }
+
+    private static double rate(long bytes, long nanos) {
+        return nanos > 0 ? bytes * 1e9 / nanos : 0;
+    }
+}
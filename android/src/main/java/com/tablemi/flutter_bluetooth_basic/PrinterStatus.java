@@ -0,0 +1,64 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+/**
+ * Decodes the status bytes returned by GS r, DLE EOT and TSPL ESC ! ? into
+ * the error codes reported over the method channel; null means no error.
+ */
+public class PrinterStatus {
+    public static final String PAPER_OUT = "paper_out";
+    public static final String COVER_OPEN = "cover_open";
+    public static final String PAPER_JAM = "paper_jam";
+    public static final String RIBBON_OUT = "ribbon_out";
+    public static final String PRINTER_ERROR = "printer_error";
+    public static final String OFFLINE = "offline";
+
+    /**
+     * GS r 1, paper sensor status.
+     */
+    public static String paperSensorError(int b) {
+        return (b & 0x0C) != 0 ? PAPER_OUT : null;
+    }
+
+    /**
+     * GS r 1 reports the roll running low without an error.
+     */
+    public static boolean isPaperNearEnd(int b) {
+        return (b & 0x03) != 0;
+    }
+
+    /**
+     * DLE EOT 1, printer status.
+     */
+    public static String printerError(int b) {
+        return (b & 0x08) != 0 ? OFFLINE : null;
+    }
+
+    /**
+     * DLE EOT 2, offline cause.
+     */
+    public static String offlineCauseError(int b) {
+        if ((b & 0x04) != 0) return COVER_OPEN;
+        if ((b & 0x20) != 0) return PAPER_OUT;
+        if ((b & 0x40) != 0) return PRINTER_ERROR;
+        return null;
+    }
+
+    /**
+     * DLE EOT 4, roll paper sensor status.
+     */
+    public static String rollSensorError(int b) {
+        return (b & 0x60) != 0 ? PAPER_OUT : null;
+    }
+
+    /**
+     * TSPL ESC ! ?, label printer status.
+     */
+    public static String tsplError(int b) {
+        if ((b & 0x41) != 0) return COVER_OPEN;
+        if ((b & 0x02) != 0) return PAPER_JAM;
+        if ((b & 0x04) != 0) return PAPER_OUT;
+        if ((b & 0x08) != 0) return RIBBON_OUT;
+        if ((b & 0x80) != 0) return PRINTER_ERROR;
+        return null;
+    }
+}
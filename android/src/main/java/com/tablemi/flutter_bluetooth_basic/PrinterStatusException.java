@@ -0,0 +1,20 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.io.IOException;
+
+/**
+ * The printer reported a condition that stops printing, such as paper out
+ * or an open cover. The code is one of the {@link PrinterStatus} constants.
+ */
+public class PrinterStatusException extends IOException {
+    private final String mCode;
+
+    public PrinterStatusException(String code, String message) {
+        super(message);
+        mCode = code;
+    }
+
+    public String getCode() {
+        return mCode;
+    }
+}
@@ -0,0 +1,21 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+/**
+ * A monochrome image packed 1 bit per dot, 8 dots per byte, MSB first,
+ * rows stored top to bottom. A set bit prints black.
+ */
+public class Raster {
+    public final byte[] data;
+    public final int widthBytes;
+    public final int height;
+
+    public Raster(byte[] data, int widthBytes, int height) {
+        this.data = data;
+        this.widthBytes = widthBytes;
+        this.height = height;
+    }
+
+    public int widthDots() {
+        return widthBytes * 8;
+    }
+}
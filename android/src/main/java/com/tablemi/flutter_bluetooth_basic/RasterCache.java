@@ -0,0 +1,121 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide LRU cache of rasterized images. Entries are keyed by a digest
+ * of the encoded image content plus the print width and dithering settings,
+ * so a repeated logo skips Base64 decoding, bitmap decoding and dithering.
+ * The cache is bounded by the total size of the stored rasters.
+ */
+public class RasterCache {
+    public static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final RasterCache sInstance = new RasterCache(DEFAULT_MAX_BYTES);
+
+    private final LinkedHashMap<String, Raster> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mMaxBytes;
+    private long mBytes;
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    public RasterCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    public static RasterCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Build the cache key of an image.
+     *
+     * @param content Base64 image content as sent from Dart
+     */
+    public static String key(String content, int width, int mode, int threshold) {
+        return digest(content) + ':' + width + ':' + mode + ':' + threshold;
+    }
+
+    private static String digest(String content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(content.getBytes(ASCII));
+            char[] out = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                out[i * 2] = HEX[(hash[i] >> 4) & 0x0F];
+                out[i * 2 + 1] = HEX[hash[i] & 0x0F];
+            }
+            return new String(out);
+        } catch (NoSuchAlgorithmException e) {
+            return content.length() + "-" + content.hashCode();
+        }
+    }
+
+    public synchronized Raster get(String key) {
+        Raster raster = mEntries.get(key);
+        if (raster != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return raster;
+    }
+
+    public synchronized void put(String key, Raster raster) {
+        long size = sizeOf(raster);
+        if (size > mMaxBytes) {
+            return;
+        }
+        Raster old = mEntries.put(key, raster);
+        if (old != null) {
+            mBytes -= sizeOf(old);
+        }
+        mBytes += size;
+        trim();
+    }
+
+    /**
+     * Change the byte budget, evicting least recently used entries as needed.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = Math.max(0, maxBytes);
+        trim();
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> ret = new HashMap<>();
+        ret.put("hits", mHits);
+        ret.put("misses", mMisses);
+        ret.put("evictions", mEvictions);
+        ret.put("entries", mEntries.size());
+        ret.put("bytes", mBytes);
+        ret.put("maxBytes", mMaxBytes);
+        return ret;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Raster>> it = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && it.hasNext()) {
+            mBytes -= sizeOf(it.next().getValue());
+            it.remove();
+            mEvictions++;
+        }
+    }
+
+    private static long sizeOf(Raster raster) {
+        return (long) raster.widthBytes * raster.height;
+    }
+}
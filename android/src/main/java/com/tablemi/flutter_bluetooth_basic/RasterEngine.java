@@ -0,0 +1,176 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.util.Arrays;
+
+/**
+ * Converts ARGB pixel rows into a packed 1-bpp {@link Raster} using primitive
+ * arrays only. Rows are fed band by band so the caller never has to hold the
+ * full-size pixel array; transparent pixels are composited onto white paper.
+ */
+public class RasterEngine {
+    public static final int DITHER_THRESHOLD = 0;
+    public static final int DITHER_ORDERED = 1;
+    public static final int DITHER_FLOYD_STEINBERG = 2;
+
+    public static final int DEFAULT_THRESHOLD = 128;
+
+    // Rows read from a PixelSource at a time
+    private static final int BAND_ROWS = 64;
+
+    // 16x16 Bayer matrix, the same one the gprinter SDK dithers with
+    private static final int[][] BAYER_16X16 = {
+            {0, 128, 32, 160, 8, 136, 40, 168, 2, 130, 34, 162, 10, 138, 42, 170},
+            {192, 64, 224, 96, 200, 72, 232, 104, 194, 66, 226, 98, 202, 74, 234, 106},
+            {48, 176, 16, 144, 56, 184, 24, 152, 50, 178, 18, 146, 58, 186, 26, 154},
+            {240, 112, 208, 80, 248, 120, 216, 88, 242, 114, 210, 82, 250, 122, 218, 90},
+            {12, 140, 44, 172, 4, 132, 36, 164, 14, 142, 46, 174, 6, 134, 38, 166},
+            {204, 76, 236, 108, 196, 68, 228, 100, 206, 78, 238, 110, 198, 70, 230, 102},
+            {60, 188, 28, 156, 52, 180, 20, 148, 62, 190, 30, 158, 54, 182, 22, 150},
+            {252, 124, 220, 92, 244, 116, 212, 84, 254, 126, 222, 94, 246, 118, 214, 86},
+            {3, 131, 35, 163, 11, 139, 43, 171, 1, 129, 33, 161, 9, 137, 41, 169},
+            {195, 67, 227, 99, 203, 75, 235, 107, 193, 65, 225, 97, 201, 73, 233, 105},
+            {51, 179, 19, 147, 59, 187, 27, 155, 49, 177, 17, 145, 57, 185, 25, 153},
+            {243, 115, 211, 83, 251, 123, 219, 91, 241, 113, 209, 81, 249, 121, 217, 89},
+            {15, 143, 47, 175, 7, 135, 39, 167, 13, 141, 45, 173, 5, 133, 37, 165},
+            {207, 79, 239, 111, 199, 71, 231, 103, 205, 77, 237, 109, 197, 69, 229, 101},
+            {63, 191, 31, 159, 55, 183, 23, 151, 61, 189, 29, 157, 53, 181, 21, 149},
+            {254, 127, 223, 95, 247, 119, 215, 87, 253, 125, 221, 93, 245, 117, 213, 85},
+    };
+
+    private final int mWidth;
+    private final int mWidthBytes;
+    private final int mMode;
+    private final int mThreshold;
+    private final byte[] mData;
+    private final int mHeight;
+    private int mRow;
+    // Floyd-Steinberg error of the current and the next row, scaled by 16
+    private int[] mErr;
+    private int[] mNextErr;
+
+    /**
+     * @param width     image width in dots
+     * @param height    image height in dots
+     * @param mode      one of the DITHER_ constants
+     * @param threshold gray level below which a dot prints black (threshold and Floyd-Steinberg)
+     */
+    public RasterEngine(int width, int height, int mode, int threshold) {
+        mWidth = width;
+        mWidthBytes = (width + 7) / 8;
+        mHeight = height;
+        mMode = mode;
+        mThreshold = threshold;
+        mData = new byte[mWidthBytes * height];
+        if (mode == DITHER_FLOYD_STEINBERG) {
+            mErr = new int[width + 2];
+            mNextErr = new int[width + 2];
+        }
+    }
+
+    public static int parseMode(Object mode) {
+        if ("threshold".equals(mode)) return DITHER_THRESHOLD;
+        if ("floyd".equals(mode) || "floyd_steinberg".equals(mode)) return DITHER_FLOYD_STEINBERG;
+        return DITHER_ORDERED;
+    }
+
+    /**
+     * Convert whole ARGB image in one call.
+     */
+    public static Raster rasterize(int[] argb, int width, int height, int mode, int threshold) {
+        RasterEngine engine = new RasterEngine(width, height, mode, threshold);
+        engine.addRows(argb, 0, height);
+        return engine.finish();
+    }
+
+    /**
+     * Convert an image at its own size, reading its pixels in bands into
+     * a reused int[].
+     */
+    public static Raster rasterize(PixelSource source, int mode, int threshold) {
+        int w = source.getWidth();
+        int h = source.getHeight();
+        RasterEngine engine = new RasterEngine(w, h, mode, threshold);
+        int[] band = new int[w * Math.min(BAND_ROWS, h)];
+        for (int y = 0; y < h; y += BAND_ROWS) {
+            int rows = Math.min(BAND_ROWS, h - y);
+            source.getPixels(band, 0, w, 0, y, w, rows);
+            engine.addRows(band, 0, rows);
+        }
+        return engine.finish();
+    }
+
+    /**
+     * Feed the next rows of the image.
+     *
+     * @param argb   pixel rows, {@code width} pixels each
+     * @param offset index of the first pixel in {@code argb}
+     * @param rows   number of rows to consume
+     */
+    public void addRows(int[] argb, int offset, int rows) {
+        final int end = Math.min(mHeight, mRow + rows);
+        int p = offset;
+        for (int y = mRow; y < end; y++) {
+            final int rowOut = y * mWidthBytes;
+            switch (mMode) {
+                case DITHER_THRESHOLD:
+                    for (int x = 0; x < mWidth; x++) {
+                        if (luma(argb[p++]) < mThreshold) {
+                            mData[rowOut + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+                        }
+                    }
+                    break;
+                case DITHER_FLOYD_STEINBERG:
+                    p = diffuseRow(argb, p, rowOut);
+                    break;
+                default:
+                    for (int x = 0; x < mWidth; x++) {
+                        if (luma(argb[p++]) <= BAYER_16X16[x & 15][y & 15]) {
+                            mData[rowOut + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+                        }
+                    }
+                    break;
+            }
+        }
+        mRow = end;
+    }
+
+    private int diffuseRow(int[] argb, int p, int rowOut) {
+        final int[] err = mErr;
+        final int[] next = mNextErr;
+        for (int x = 0; x < mWidth; x++) {
+            int value = luma(argb[p++]) + (err[x + 1] >> 4);
+            int error;
+            if (value < mThreshold) {
+                mData[rowOut + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+                error = value;
+            } else {
+                error = value - 255;
+            }
+            err[x + 2] += error * 7;
+            next[x] += error * 3;
+            next[x + 1] += error * 5;
+            next[x + 2] += error;
+        }
+        mErr = next;
+        mNextErr = err;
+        Arrays.fill(err, 0);
+        return p;
+    }
+
+    public Raster finish() {
+        return new Raster(mData, mWidthBytes, mRow);
+    }
+
+    /**
+     * Gray level of a pixel composited onto white, BT.709 weights.
+     */
+    static int luma(int argb) {
+        final int a = argb >>> 24;
+        final int r = (argb >> 16) & 0xFF;
+        final int g = (argb >> 8) & 0xFF;
+        final int b = argb & 0xFF;
+        final int y = (54 * r + 183 * g + 19 * b) >> 8;
+        if (a == 0xFF) return y;
+        return (y * a + 255 * (255 - a)) / 255;
+    }
+}
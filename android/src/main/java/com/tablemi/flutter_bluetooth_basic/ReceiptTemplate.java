@@ -0,0 +1,87 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A receipt compiled once into ESC/POS byte segments. Lines without
+ * placeholders are encoded at registration; lines whose content contains
+ * {@code {{name}}} placeholders, and logo lines whose output depends on the
+ * printer, are kept and encoded per job with the values spliced in.
+ */
+public class ReceiptTemplate {
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{\\s*([\\w.-]+)\\s*\\}\\}");
+
+    // Either a byte[] of precompiled commands or a Map of a variable line
+    private final List<Object> mSegments = new ArrayList<>();
+    private final PrintContent.ReceiptOptions mOptions;
+    private int mStaticSize;
+    private long mStaticBytesSaved;
+
+    public ReceiptTemplate(Map<String, Object> config, List<Map<String, Object>> lines) {
+        mOptions = new PrintContent.ReceiptOptions(config);
+        EscEncoder esc = new EscEncoder().setCodePages(mOptions.codePages);
+        PrintContent.beginReceipt(esc);
+        for (Map<String, Object> line : lines) {
+            String content = (String) line.get("content");
+            if ("logo".equals(line.get("type")) || (content != null && PLACEHOLDER.matcher(content).find())) {
+                flush(esc);
+                mSegments.add(line);
+                // The variable line may change the justification at render
+                esc.resetState();
+            } else {
+                PrintContent.encodeLine(esc, line, content, mOptions, null);
+            }
+        }
+        PrintContent.endReceipt(esc);
+        flush(esc);
+        mStaticBytesSaved = esc.getRasterBytesSaved();
+    }
+
+    private void flush(EscEncoder esc) {
+        PrintBuffer buffer = esc.getBuffer();
+        if (buffer.size() > 0) {
+            mSegments.add(buffer.toByteArray());
+            mStaticSize += buffer.size();
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Assemble a receipt from the precompiled segments and the values of the
+     * placeholders; a placeholder without a value prints as an empty string.
+     *
+     * @param address MAC address of the printer, used by logo lines
+     */
+    @SuppressWarnings("unchecked")
+    public byte[] render(Map<String, Object> values, String address) {
+        PrintBuffer out = new PrintBuffer(mStaticSize + 256);
+        EscEncoder esc = new EscEncoder(out).setCodePages(mOptions.codePages);
+        for (Object segment : mSegments) {
+            if (segment instanceof byte[]) {
+                out.write((byte[]) segment);
+                esc.resetState();
+            } else {
+                Map<String, Object> line = (Map<String, Object>) segment;
+                PrintContent.encodeLine(esc, line, substitute((String) line.get("content"), values), mOptions, address);
+            }
+        }
+        PrintMetrics.saved(mStaticBytesSaved + esc.getRasterBytesSaved());
+        return out.toByteArray();
+    }
+
+    static String substitute(String content, Map<String, Object> values) {
+        if (content == null) return null;
+        Matcher matcher = PLACEHOLDER.matcher(content);
+        StringBuffer sb = new StringBuffer(content.length() + 32);
+        while (matcher.find()) {
+            Object value = values == null ? null : values.get(matcher.group(1));
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(value == null ? "" : value.toString()));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+}
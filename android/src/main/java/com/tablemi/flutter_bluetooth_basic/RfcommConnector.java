@@ -0,0 +1,193 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.SocketTimeoutException;
+import java.util.UUID;
+
+/**
+ * Opens the RFCOMM socket of one printer on a thread of its own, so the
+ * caller waits at most the timeout and can be cancelled from any thread.
+ * Attempts run as a state machine: the secure SPP socket first, then the
+ * insecure one for printers that refuse to pair, then a socket on RFCOMM
+ * channel 1 for printers with a broken SDP record. Closing the socket of
+ * the running attempt is what aborts its blocking connect().
+ */
+public class RfcommConnector {
+    private static final String TAG = "RfcommConnector";
+
+    public static final long DEFAULT_TIMEOUT_MS = 10_000;
+
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_SECURE = 1;
+    public static final int STATE_INSECURE = 2;
+    public static final int STATE_CHANNEL = 3;
+    public static final int STATE_CONNECTED = 4;
+    public static final int STATE_FAILED = 5;
+    public static final int STATE_CANCELLED = 6;
+
+    static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    private static final int FALLBACK_CHANNEL = 1;
+
+    private final BluetoothAdapter mAdapter;
+    private final BluetoothDevice mDevice;
+    private int mState = STATE_IDLE;
+    // Socket of the running attempt, or the connected one
+    private BluetoothSocket mSocket;
+    private IOException mError;
+
+    public RfcommConnector(BluetoothAdapter adapter, BluetoothDevice device) {
+        mAdapter = adapter;
+        mDevice = device;
+    }
+
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * Run the attempts and wait for the first socket that connects.
+     *
+     * @param timeoutMs time all attempts together may take
+     * @throws SocketTimeoutException when no attempt connected in time
+     * @throws IOException            when every attempt failed or the connect was cancelled
+     */
+    public BluetoothSocket connect(long timeoutMs) throws IOException, InterruptedException {
+        synchronized (this) {
+            if (mState != STATE_IDLE) throw new IllegalStateException("connect already started");
+            mState = STATE_SECURE;
+        }
+        Thread thread = new Thread(this::run, "bt-connect-" + mDevice.getAddress());
+        thread.setDaemon(true);
+        thread.start();
+
+        synchronized (this) {
+            long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+            long left;
+            try {
+                while (!isDone() && (left = deadline - System.nanoTime()) > 0) {
+                    wait(Math.max(1, left / 1_000_000L));
+                }
+            } catch (InterruptedException e) {
+                abort(STATE_CANCELLED);
+                throw e;
+            }
+            switch (mState) {
+                case STATE_CONNECTED:
+                    return mSocket;
+                case STATE_CANCELLED:
+                    throw new IOException("Connect to " + mDevice.getAddress() + " cancelled");
+                case STATE_FAILED:
+                    throw mError != null ? mError : new IOException("Unable to connect device " + mDevice.getAddress());
+                default:
+                    abort(STATE_FAILED);
+                    throw new SocketTimeoutException("Connect to " + mDevice.getAddress() + " timed out after " + timeoutMs + " ms");
+            }
+        }
+    }
+
+    /**
+     * Abort a running connect; the waiting caller fails at once.
+     */
+    public synchronized void cancel() {
+        if (!isDone()) abort(STATE_CANCELLED);
+    }
+
+    private boolean isDone() {
+        return mState == STATE_CONNECTED || mState == STATE_FAILED || mState == STATE_CANCELLED;
+    }
+
+    private void abort(int state) {
+        mState = state;
+        closeQuietly(mSocket);
+        mSocket = null;
+        notifyAll();
+    }
+
+    private void run() {
+        // Discovery slows the connect down considerably
+        if (mAdapter.isDiscovering()) {
+            mAdapter.cancelDiscovery();
+        }
+        for (int step = STATE_SECURE; step <= STATE_CHANNEL; step++) {
+            BluetoothSocket socket;
+            synchronized (this) {
+                if (isDone()) return;
+                mState = step;
+            }
+            try {
+                socket = create(step);
+            } catch (IOException e) {
+                Log.d(TAG, "no socket for attempt " + step + ": " + e.getMessage());
+                synchronized (this) {
+                    mError = e;
+                }
+                continue;
+            }
+            synchronized (this) {
+                if (isDone()) {
+                    closeQuietly(socket);
+                    return;
+                }
+                mSocket = socket;
+            }
+            try {
+                socket.connect();
+                synchronized (this) {
+                    if (isDone()) {
+                        // Timed out or cancelled while connect() returned
+                        closeQuietly(socket);
+                        return;
+                    }
+                    mState = STATE_CONNECTED;
+                    notifyAll();
+                }
+                Log.d(TAG, "connected " + mDevice.getAddress() + " on attempt " + step);
+                return;
+            } catch (IOException e) {
+                Log.d(TAG, "attempt " + step + " failed: " + e.getMessage());
+                closeQuietly(socket);
+                synchronized (this) {
+                    if (mSocket == socket) mSocket = null;
+                    mError = e;
+                }
+            }
+        }
+        synchronized (this) {
+            if (!isDone()) {
+                mState = STATE_FAILED;
+                notifyAll();
+            }
+        }
+    }
+
+    private BluetoothSocket create(int step) throws IOException {
+        switch (step) {
+            case STATE_SECURE:
+                return mDevice.createRfcommSocketToServiceRecord(SPP_UUID);
+            case STATE_INSECURE:
+                return mDevice.createInsecureRfcommSocketToServiceRecord(SPP_UUID);
+            default:
+                try {
+                    Method method = mDevice.getClass().getMethod("createRfcommSocket", int.class);
+                    return (BluetoothSocket) method.invoke(mDevice, FALLBACK_CHANNEL);
+                } catch (Exception e) {
+                    throw new IOException("createRfcommSocket is not available", e);
+                }
+        }
+    }
+
+    private static void closeQuietly(BluetoothSocket socket) {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.d(TAG, "close failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Bluetooth SPP link; the connect runs through {@link RfcommConnector}.
+ */
+public class RfcommTransport implements Transport {
+    private static final String TAG = "RfcommTransport";
+
+    private final BluetoothDevice mDevice;
+    private final RfcommConnector mConnector;
+    private BluetoothSocket mSocket;
+    private InputStream mInStream;
+    private OutputStream mOutStream;
+
+    public RfcommTransport(BluetoothAdapter adapter, BluetoothDevice device) {
+        mDevice = device;
+        mConnector = new RfcommConnector(adapter, device);
+    }
+
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    @Override
+    public void connect(long timeoutMs) throws IOException, InterruptedException {
+        BluetoothSocket socket = mConnector.connect(timeoutMs);
+        try {
+            mInStream = socket.getInputStream();
+            mOutStream = socket.getOutputStream();
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+        mSocket = socket;
+    }
+
+    @Override
+    public void cancel() {
+        mConnector.cancel();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        mOutStream.write(data, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mOutStream.flush();
+    }
+
+    @Override
+    public int read(byte[] buffer) throws IOException {
+        return mInStream.read(buffer);
+    }
+
+    /**
+     * available() throws once the remote side has dropped the RFCOMM channel.
+     */
+    @Override
+    public boolean isOpen() {
+        if (mSocket == null || !mSocket.isConnected()) {
+            return false;
+        }
+        try {
+            mInStream.available();
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "connection is closed: " + mDevice.getAddress());
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        // Flush output buffers befoce closing
+        try {
+            if (mOutStream != null) {
+                mOutStream.flush();
+                mOutStream.close();
+            }
+            if (mInStream != null)
+                mInStream.close();
+        } catch (Exception e) {
+            Log.e(TAG, "mmOutStream flush error", e);
+        }
+        // Close the connection socket
+        if (mSocket != null) {
+            try {
+                Log.d(TAG, "close Socket");
+                mSocket.close();
+            } catch (Exception e) {
+                Log.e(TAG, "Could not close the connect socket", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deduplicates scan results by device address and hands the devices that
+ * are new or changed to the listener in one batch per interval, instead of
+ * one main-thread message per advertisement. A device counts as changed
+ * when its name changes or its RSSI moves by at least the configured delta.
+ */
+public class ScanAggregator {
+    public static final long DEFAULT_INTERVAL_MS = 250;
+    public static final int DEFAULT_RSSI_DELTA = 5;
+
+    public interface Listener {
+        /**
+         * Called once per device, when it is first seen.
+         */
+        boolean isConnected(BluetoothDevice device);
+
+        /**
+         * Called on the handler thread with the new and changed devices.
+         */
+        void onScanResults(List<Map<String, Object>> devices);
+    }
+
+    private static final class Entry {
+        final String address;
+        String name;
+        int type;
+        boolean connected;
+        int rssi;
+        int sentRssi;
+
+        Entry(String address) {
+            this.address = address;
+        }
+    }
+
+    private final Handler mHandler;
+    private final Listener mListener;
+    private final Map<String, Entry> mDevices = new HashMap<>();
+    // Devices waiting for the next batch, in the order they changed
+    private final Map<String, Entry> mDirty = new LinkedHashMap<>();
+    private long mIntervalMs = DEFAULT_INTERVAL_MS;
+    private int mRssiDelta = DEFAULT_RSSI_DELTA;
+    private boolean mScheduled;
+
+    private final Runnable mFlush = this::flush;
+
+    public ScanAggregator(Handler handler, Listener listener) {
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    /**
+     * Forget every device seen so far and start a new scan session.
+     *
+     * @param intervalMs how often batches are delivered, 0 delivers on the next handler turn
+     * @param rssiDelta  smallest RSSI change reported for a known device
+     */
+    public synchronized void reset(long intervalMs, int rssiDelta) {
+        mIntervalMs = Math.max(0, intervalMs);
+        mRssiDelta = Math.max(0, rssiDelta);
+        mDevices.clear();
+        mDirty.clear();
+        mHandler.removeCallbacks(mFlush);
+        mScheduled = false;
+    }
+
+    /**
+     * Record one advertisement; safe to call from the scanner binder thread.
+     */
+    public void offer(BluetoothDevice device, int rssi) {
+        String address = device.getAddress();
+        String name = device.getName();
+        Entry entry;
+        boolean isNew;
+        synchronized (this) {
+            entry = mDevices.get(address);
+            isNew = entry == null;
+            if (!isNew) {
+                boolean changed = (name != null && !name.equals(entry.name))
+                        || Math.abs(rssi - entry.sentRssi) >= mRssiDelta;
+                entry.rssi = rssi;
+                if (name != null) entry.name = name;
+                if (changed) markDirty(entry);
+                return;
+            }
+        }
+        // The reflective connection check stays outside the lock and runs once per device
+        boolean connected = mListener.isConnected(device);
+        synchronized (this) {
+            if (mDevices.containsKey(address)) return;
+            entry = new Entry(address);
+            entry.name = name;
+            entry.type = device.getType();
+            entry.connected = connected;
+            entry.rssi = rssi;
+            mDevices.put(address, entry);
+            markDirty(entry);
+        }
+    }
+
+    private void markDirty(Entry entry) {
+        mDirty.put(entry.address, entry);
+        if (!mScheduled) {
+            mScheduled = true;
+            mHandler.postDelayed(mFlush, mIntervalMs);
+        }
+    }
+
+    /**
+     * Deliver the pending batch now, e.g. when the scan stops.
+     */
+    public void flush() {
+        List<Map<String, Object>> batch;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlush);
+            mScheduled = false;
+            if (mDirty.isEmpty()) return;
+            batch = new ArrayList<>(mDirty.size());
+            for (Entry entry : mDirty.values()) {
+                Map<String, Object> ret = new HashMap<>();
+                ret.put("address", entry.address);
+                ret.put("name", entry.name);
+                ret.put("type", entry.type);
+                ret.put("isConnected", entry.connected);
+                ret.put("rssi", entry.rssi);
+                entry.sentRssi = entry.rssi;
+                batch.add(ret);
+            }
+            mDirty.clear();
+        }
+        mListener.onScanResults(batch);
+    }
+}
@@ -0,0 +1,202 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.util.ArrayDeque;
+
+/**
+ * Matches the bytes a printer sends back to the status queries written to
+ * it. Replies are told apart by their fixed bits rather than by arrival
+ * order, because real-time DLE EOT replies overtake GS r replies that wait
+ * in the print buffer:
+ * <ul>
+ * <li>GS r 1 answers 0xx0xxxxb; bits 0-3 are the near-end and paper-end sensors</li>
+ * <li>DLE EOT n answers 0xx1xx10b</li>
+ * <li>block replies (GS ( L, GS I) start with a header byte and end with NUL;
+ * an unexpected one is swallowed unless its first byte looks like DLE EOT</li>
+ * <li>TSPL ESC ! ? answers a bare status byte, so it takes the next byte while pending</li>
+ * </ul>
+ * Bytes nobody waits for, such as automatic status back, are dropped.
+ * Replies of a kind come in the order of their queries, so a query that
+ * timed out stays queued, abandoned, and its late reply is consumed
+ * instead of answering a newer query. An abandoned query is given up
+ * after STALE_REPLY_MS, in case its reply never comes.
+ */
+public class StatusReader {
+    public static final int REPLY_PAPER = 0;
+    public static final int REPLY_REALTIME = 1;
+    public static final int REPLY_BLOCK = 2;
+    public static final int REPLY_TSPL = 3;
+
+    private static final int BLOCK_HEADER_MIN = 0x35;
+    private static final int BLOCK_HEADER_MAX = 0x3F;
+    static final long STALE_REPLY_MS = 120_000;
+
+    public static final class Pending {
+        final int kind;
+        int value = -1;
+        PrintBuffer block;
+        boolean done;
+        // Timed out; its reply is still consumed until the deadline (System.nanoTime())
+        boolean abandoned;
+        long staleDeadline;
+
+        Pending(int kind) {
+            this.kind = kind;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Pending>[] mQueues = new ArrayDeque[]{
+            new ArrayDeque<Pending>(), new ArrayDeque<Pending>(), new ArrayDeque<Pending>(), new ArrayDeque<Pending>()
+    };
+    // Block reply being received, or a stub swallowing an unexpected one
+    private Pending mBlock;
+    private boolean mClosed;
+    // Bit per reply kind the printer has answered on this connection
+    private int mAnswered;
+
+    /**
+     * Register interest in the next reply of a kind. Call before writing the
+     * query so a fast reply is not missed.
+     */
+    public synchronized Pending expect(int kind) {
+        Pending pending = new Pending(kind);
+        if (mClosed) {
+            pending.done = true;
+        } else {
+            mQueues[kind].add(pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Wait for a reply.
+     *
+     * @return the status byte, or -1 when the printer did not answer in time
+     * or the connection closed
+     */
+    public synchronized int await(Pending pending, long timeoutMs) throws InterruptedException {
+        waitDone(pending, timeoutMs);
+        return pending.value;
+    }
+
+    /**
+     * Wait for a block reply.
+     *
+     * @return the reply from the header byte up to, not including, NUL, or null on timeout
+     */
+    public synchronized byte[] awaitBlock(Pending pending, long timeoutMs) throws InterruptedException {
+        waitDone(pending, timeoutMs);
+        return pending.value < 0 || pending.block == null ? null : pending.block.toByteArray();
+    }
+
+    private void waitDone(Pending pending, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        long left;
+        while (!pending.done && (left = deadline - System.nanoTime()) > 0) {
+            wait(Math.max(1, left / 1_000_000L));
+        }
+        if (!pending.done) {
+            // Stays queued so its late reply is not taken for the answer to a later query
+            pending.abandoned = true;
+            pending.staleDeadline = System.nanoTime() + STALE_REPLY_MS * 1_000_000L;
+            pending.done = true;
+        }
+    }
+
+    /**
+     * Wait until every registered reply has arrived or timed out.
+     */
+    public synchronized void awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        long left;
+        while (hasPending() && (left = deadline - System.nanoTime()) > 0) {
+            wait(Math.max(1, left / 1_000_000L));
+        }
+    }
+
+    private boolean hasPending() {
+        for (ArrayDeque<Pending> queue : mQueues) {
+            for (Pending pending : queue) {
+                if (!pending.abandoned) return true;
+            }
+        }
+        return mBlock != null && mBlock.kind == REPLY_BLOCK && !mBlock.abandoned;
+    }
+
+    /**
+     * The oldest query of a kind still waiting for its reply, live or
+     * abandoned; abandoned ones past their time are given up.
+     */
+    private Pending next(int kind) {
+        ArrayDeque<Pending> queue = mQueues[kind];
+        long now = System.nanoTime();
+        Pending pending;
+        while ((pending = queue.peek()) != null && pending.abandoned && now - pending.staleDeadline > 0) {
+            queue.poll();
+        }
+        return queue.poll();
+    }
+
+    /**
+     * Whether the printer has answered a query of the kind on this connection.
+     */
+    public synchronized boolean hasAnswered(int kind) {
+        return (mAnswered & (1 << kind)) != 0;
+    }
+
+    public synchronized void onByte(int b) {
+        if (mBlock != null) {
+            if (b == 0) {
+                complete(mBlock, 0);
+                mBlock = null;
+            } else if (mBlock.block != null) {
+                mBlock.block.write(b);
+            }
+            return;
+        }
+        Pending pending;
+        if ((pending = next(REPLY_TSPL)) != null) {
+            complete(pending, b);
+        } else if ((b & 0x90) == 0x00 && (pending = next(REPLY_PAPER)) != null) {
+            complete(pending, b);
+        } else if ((b & 0x93) == 0x12 && (pending = next(REPLY_REALTIME)) != null) {
+            complete(pending, b);
+        } else if (b >= BLOCK_HEADER_MIN && b <= BLOCK_HEADER_MAX) {
+            pending = next(REPLY_BLOCK);
+            if (pending != null) {
+                if (!pending.abandoned) {
+                    pending.block = new PrintBuffer(32);
+                    pending.block.write(b);
+                }
+                mBlock = pending;
+            } else if ((b & 0x93) != 0x12) {
+                // A late DLE EOT reply such as 0x36 is dropped, not taken
+                // for a block that would swallow the next acks
+                mBlock = new Pending(-1);
+            }
+        }
+    }
+
+    private void complete(Pending pending, int value) {
+        if (pending.kind < 0) return;
+        mAnswered |= 1 << pending.kind;
+        if (pending.abandoned) return;
+        pending.value = value;
+        pending.done = true;
+        notifyAll();
+    }
+
+    /**
+     * Fail every waiting query; called when the connection closes.
+     */
+    public synchronized void close() {
+        mClosed = true;
+        for (ArrayDeque<Pending> queue : mQueues) {
+            for (Pending pending : queue) pending.done = true;
+            queue.clear();
+        }
+        if (mBlock != null) mBlock.done = true;
+        mBlock = null;
+        notifyAll();
+    }
+}
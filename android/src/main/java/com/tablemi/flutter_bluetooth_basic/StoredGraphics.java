@@ -0,0 +1,184 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registry of logos uploaded to printer NV graphics memory. It records per
+ * MAC address whether the printer supports NV graphics and which key codes
+ * it holds with a digest of the uploaded raster, and keeps the raster of
+ * every key on disk, per address since printers differ in width, so
+ * receipts can fall back to printing it inline. The raster registered last
+ * under a key also serves printers it was not registered for.
+ */
+public class StoredGraphics {
+    private static final String TAG = "StoredGraphics";
+    private static final String PREFS_NAME = "flutter_bluetooth_basic_stored_graphics";
+    private static final String DIR_NAME = "flutter_bluetooth_basic_logos";
+
+    private static final StoredGraphics sInstance = new StoredGraphics();
+
+    private SharedPreferences mPrefs;
+    private File mDir;
+    // By address + "/" + key; the address is empty for the last registered raster of a key
+    private final Map<String, Raster> mRasters = new HashMap<>();
+
+    public static StoredGraphics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Attach persistent storage; until then the registry lives in memory only.
+     */
+    public synchronized void init(Context context) {
+        if (mPrefs != null) return;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mDir = new File(context.getFilesDir(), DIR_NAME);
+    }
+
+    /**
+     * A key is two printable ASCII characters, the kc1 kc2 of GS ( L.
+     */
+    public static boolean isValidKey(String key) {
+        return key != null && key.length() == 2
+                && key.charAt(0) >= 32 && key.charAt(0) <= 126
+                && key.charAt(1) >= 32 && key.charAt(1) <= 126;
+    }
+
+    /**
+     * @return TRUE or FALSE once the printer answered the capacity query, null before
+     */
+    public synchronized Boolean isSupported(String address) {
+        if (mPrefs == null || !mPrefs.contains(address + ".supported")) return null;
+        return mPrefs.getBoolean(address + ".supported", false);
+    }
+
+    public synchronized void setSupported(String address, boolean supported) {
+        if (mPrefs != null) mPrefs.edit().putBoolean(address + ".supported", supported).apply();
+    }
+
+    public synchronized boolean hasKey(String address, String key) {
+        return mPrefs != null && mPrefs.getStringSet(address + ".keys", new HashSet<>()).contains(key);
+    }
+
+    /**
+     * Whether the printer holds the key with exactly this raster.
+     *
+     * @param digest {@link #digest(Raster)} of the raster
+     */
+    public synchronized boolean hasKey(String address, String key, String digest) {
+        return hasKey(address, key) && digest.equals(mPrefs.getString(address + ".digest." + key, null));
+    }
+
+    /**
+     * Record a key uploaded to the printer and the digest of its raster.
+     */
+    public synchronized void addKey(String address, String key, String digest) {
+        if (mPrefs == null) return;
+        Set<String> keys = new HashSet<>(mPrefs.getStringSet(address + ".keys", new HashSet<>()));
+        keys.add(key);
+        mPrefs.edit().putStringSet(address + ".keys", keys).putString(address + ".digest." + key, digest).apply();
+    }
+
+    public synchronized void removeKey(String address, String key) {
+        if (mPrefs == null) return;
+        Set<String> keys = new HashSet<>(mPrefs.getStringSet(address + ".keys", new HashSet<>()));
+        keys.remove(key);
+        mPrefs.edit().putStringSet(address + ".keys", keys).remove(address + ".digest." + key).apply();
+    }
+
+    /**
+     * SHA-1 of the size and dots of a raster, in hex.
+     */
+    public static String digest(Raster raster) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(new byte[]{
+                    (byte) (raster.widthBytes >>> 8), (byte) raster.widthBytes,
+                    (byte) (raster.height >>> 8), (byte) raster.height
+            });
+            md.update(raster.data, 0, raster.widthBytes * raster.height);
+            StringBuilder sb = new StringBuilder(40);
+            for (byte b : md.digest()) sb.append(String.format("%02x", b & 0xFF));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Raster registered under a key for a printer, or the one registered
+     * last under the key when there is none for it or the address is null.
+     */
+    public synchronized Raster getRaster(String address, String key) {
+        Raster raster = address != null ? raster(address, key) : null;
+        return raster != null ? raster : raster("", key);
+    }
+
+    private Raster raster(String address, String key) {
+        String slot = address + "/" + key;
+        Raster raster = mRasters.get(slot);
+        if (raster == null && mDir != null) {
+            raster = load(address, key);
+            if (raster != null) mRasters.put(slot, raster);
+        }
+        return raster;
+    }
+
+    public synchronized void putRaster(String address, String key, Raster raster) {
+        save(address, key, raster);
+        save("", key, raster);
+    }
+
+    private void save(String address, String key, Raster raster) {
+        mRasters.put(address + "/" + key, raster);
+        if (mDir == null) return;
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(TAG, "Could not create " + mDir);
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file(address, key)))) {
+            out.writeInt(raster.widthBytes);
+            out.writeInt(raster.height);
+            out.write(raster.data, 0, raster.widthBytes * raster.height);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save logo " + key, e);
+        }
+    }
+
+    private Raster load(String address, String key) {
+        File file = file(address, key);
+        if (!file.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            int widthBytes = in.readInt();
+            int height = in.readInt();
+            byte[] data = new byte[widthBytes * height];
+            in.readFully(data);
+            return new Raster(data, widthBytes, height);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not load logo " + key, e);
+            return null;
+        }
+    }
+
+    // The last registered raster keeps the name files had before they were kept per address
+    private File file(String address, String key) {
+        String name = Integer.toHexString(key.charAt(0)) + Integer.toHexString(key.charAt(1)) + ".bin";
+        if (address.isEmpty()) return new File(mDir, name);
+        return new File(mDir, address.replaceAll("[^A-Za-z0-9]", "_") + "_" + name);
+    }
+}
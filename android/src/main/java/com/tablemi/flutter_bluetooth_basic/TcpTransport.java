@@ -0,0 +1,78 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Raw TCP link to a network printer, the JetDirect / AppSocket protocol
+ * on port 9100. Nagle is disabled so short status queries leave at once.
+ */
+public class TcpTransport implements Transport {
+    public static final int DEFAULT_PORT = 9100;
+
+    private final String mHost;
+    private final int mPort;
+    private final Socket mSocket = new Socket();
+    private InputStream mInStream;
+    private OutputStream mOutStream;
+    private volatile boolean mEof;
+
+    public TcpTransport(String host, int port) {
+        mHost = host;
+        mPort = port;
+    }
+
+    @Override
+    public void connect(long timeoutMs) throws IOException {
+        mSocket.connect(new InetSocketAddress(mHost, mPort), (int) Math.min(Integer.MAX_VALUE, timeoutMs));
+        mSocket.setTcpNoDelay(true);
+        mSocket.setKeepAlive(true);
+        mInStream = mSocket.getInputStream();
+        mOutStream = mSocket.getOutputStream();
+    }
+
+    /**
+     * Closing the socket aborts a blocking connect.
+     */
+    @Override
+    public void cancel() {
+        close();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        mOutStream.write(data, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mOutStream.flush();
+    }
+
+    @Override
+    public int read(byte[] buffer) throws IOException {
+        int n = mInStream.read(buffer);
+        if (n < 0) mEof = true;
+        return n;
+    }
+
+    /**
+     * A printer that closed its end is only noticed by the reader, which
+     * sees the end of the stream.
+     */
+    @Override
+    public boolean isOpen() {
+        return mSocket.isConnected() && !mSocket.isClosed() && !mEof;
+    }
+
+    @Override
+    public void close() {
+        try {
+            mSocket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
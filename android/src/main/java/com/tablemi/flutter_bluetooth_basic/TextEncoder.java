@@ -0,0 +1,197 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+
+/**
+ * Encodes text for an ESC/POS printer across a list of code pages. ASCII
+ * runs are copied byte by byte; other chars use the current page when it
+ * has them and otherwise the first configured page that does. The printer
+ * state is tracked, so FS &amp;, FS . and ESC t are written only when the
+ * page actually changes. A single multi-byte page is the legacy setup and
+ * trusts the Kanji mode of the printer: no command is ever written.
+ */
+public class TextEncoder {
+    private static final int FS = 0x1C;
+    private static final int UNKNOWN = -1;
+    private static final int OFF = 0;
+    private static final int ON = 1;
+
+    private static final CodePage[] DEFAULT_PAGES = {CodePage.GB18030};
+
+    // Char and byte buffers of the multi-byte encoders, grown as needed
+    private static final class Scratch {
+        char[] chars = new char[256];
+        CharBuffer in = CharBuffer.wrap(chars);
+        ByteBuffer out = ByteBuffer.allocate(1024);
+    }
+
+    private static final ThreadLocal<Scratch> sScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private final PrintBuffer mBuffer;
+    private CodePage[] mPages = DEFAULT_PAGES;
+    private boolean mTrustKanji = true;
+    // Printer state as far as this encoder wrote it
+    private int mKanji = UNKNOWN;
+    private int mTable = UNKNOWN;
+    private CodePage mCurrent;
+
+    public TextEncoder(PrintBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * Pages to encode with, in order of preference; null or empty restores
+     * GB18030 alone.
+     */
+    public void setPages(CodePage[] pages) {
+        mPages = pages == null || pages.length == 0 ? DEFAULT_PAGES : pages.clone();
+        mTrustKanji = mPages.length == 1 && mPages[0].isMultiByte();
+        forget();
+    }
+
+    /**
+     * The printer was initialized with ESC @: table 0, Kanji mode as set up
+     * in the printer.
+     */
+    public void reset() {
+        mKanji = UNKNOWN;
+        mTable = 0;
+        mCurrent = null;
+    }
+
+    /**
+     * Forget the printer state, e.g. when commands from another encoder are
+     * spliced in.
+     */
+    public void forget() {
+        mKanji = UNKNOWN;
+        mTable = UNKNOWN;
+        mCurrent = null;
+    }
+
+    public void encode(CharSequence text) {
+        final int end = text.length();
+        int i = 0;
+        while (i < end) {
+            i = mBuffer.writeAscii(text, i, end);
+            if (i == end) break;
+            CodePage page = pick(text.charAt(i));
+            select(page);
+            i = page.isMultiByte() ? encodeMultiByte(page, text, i, end, mPages.length > 1)
+                    : encodeSingleByte(page, text, i, end);
+        }
+    }
+
+    private CodePage pick(char c) {
+        if (mPages.length == 1) return mPages[0];
+        if (mCurrent != null && mCurrent.canEncode(c)) return mCurrent;
+        for (CodePage page : mPages) {
+            if (page.canEncode(c)) return page;
+        }
+        // Nothing has it; stay put and print the replacement
+        return mCurrent != null ? mCurrent : mPages[0];
+    }
+
+    private void select(CodePage page) {
+        mCurrent = page;
+        if (page.isMultiByte()) {
+            if (mTrustKanji || mKanji == ON) return;
+            mBuffer.write(FS, '&');
+            mKanji = ON;
+        } else {
+            if (mKanji != OFF) {
+                mBuffer.write(FS, '.');
+                mKanji = OFF;
+            }
+            if (mTable != page.getTable()) {
+                mBuffer.write(EscEncoder.ESC, 't', page.getTable());
+                mTable = page.getTable();
+            }
+        }
+    }
+
+    // Up to the next ASCII char or one the page lacks while another page may have it
+    private int encodeSingleByte(CodePage page, CharSequence text, int i, int end) {
+        boolean first = true;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c < 0x80) break;
+            int b = page.map(c);
+            if (b < 0) {
+                if (!first && mPages.length > 1) break;
+                b = '?';
+                if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) i++;
+            }
+            mBuffer.write(b);
+            first = false;
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Encode {@code text} with one page and no page commands, e.g. for a
+     * CPCL TEXT line.
+     */
+    public static void encode(CodePage page, CharSequence text, PrintBuffer buffer) {
+        final int end = text.length();
+        int i = 0;
+        while (i < end) {
+            i = buffer.writeAscii(text, i, end);
+            if (i == end) break;
+            if (page.isMultiByte()) {
+                i = encodeMultiByte(page, text, i, end, false, buffer);
+            } else {
+                int b = page.map(text.charAt(i));
+                buffer.write(b < 0 ? '?' : b);
+                i++;
+            }
+        }
+    }
+
+    private int encodeMultiByte(CodePage page, CharSequence text, int i, int end, boolean check) {
+        return encodeMultiByte(page, text, i, end, check, mBuffer);
+    }
+
+    // Up to the next ASCII char, or with check one the page lacks
+    private static int encodeMultiByte(CodePage page, CharSequence text, int start, int end, boolean check,
+                                       PrintBuffer buffer) {
+        int i = start + 1;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c < 0x80 || (check && !page.canEncode(c))) break;
+            i++;
+        }
+
+        Scratch scratch = sScratch.get();
+        int length = i - start;
+        if (scratch.chars.length < length) {
+            scratch.chars = new char[Math.max(length, scratch.chars.length << 1)];
+            scratch.in = CharBuffer.wrap(scratch.chars);
+        }
+        CharsetEncoder encoder = page.encoder();
+        int maxBytes = (int) Math.ceil(length * (double) encoder.maxBytesPerChar());
+        if (scratch.out.capacity() < maxBytes) {
+            scratch.out = ByteBuffer.allocate(Math.max(maxBytes, scratch.out.capacity() << 1));
+        }
+        char[] chars = scratch.chars;
+        for (int j = 0; j < length; j++) chars[j] = text.charAt(start + j);
+        CharBuffer in = scratch.in;
+        in.clear();
+        in.limit(length);
+        ByteBuffer out = scratch.out;
+        out.clear();
+        encoder.reset();
+        encoder.encode(in, out, true);
+        encoder.flush(out);
+        buffer.write(out.array(), 0, out.position());
+        return i;
+    }
+}
@@ -0,0 +1,48 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.io.IOException;
+
+/**
+ * A byte link to one printer. {@link BluetoothService} pools one open
+ * transport per address and drives every implementation with the same
+ * chunked writer and status reader. The address picks the implementation:
+ * <ul>
+ * <li>a Bluetooth MAC address opens RFCOMM ({@link RfcommTransport})</li>
+ * <li>{@code tcp://host[:port]} opens raw TCP, port 9100 by default ({@link TcpTransport})</li>
+ * <li>{@code loopback://name[?rate=bytesPerSecond]} opens an in-memory link ({@link LoopbackTransport})</li>
+ * </ul>
+ */
+public interface Transport {
+    /**
+     * Open the link, waiting at most {@code timeoutMs}.
+     *
+     * @throws java.net.SocketTimeoutException when the link did not open in time
+     */
+    void connect(long timeoutMs) throws IOException, InterruptedException;
+
+    /**
+     * Abort a connect in progress from another thread.
+     */
+    void cancel();
+
+    /**
+     * Hand bytes to the link; blocks while the link is busy.
+     */
+    void write(byte[] data, int offset, int length) throws IOException;
+
+    void flush() throws IOException;
+
+    /**
+     * Block until the printer sends bytes.
+     *
+     * @return the number of bytes read, or -1 once the link is closed
+     */
+    int read(byte[] buffer) throws IOException;
+
+    /**
+     * Liveness check used before reusing a pooled link.
+     */
+    boolean isOpen();
+
+    void close();
+}
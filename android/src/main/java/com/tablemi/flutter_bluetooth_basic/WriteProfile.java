@@ -0,0 +1,75 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Learned flow-control parameters of one printer: how large a chunk it
+ * accepts at once, how long to wait between chunks and the sustained
+ * throughput observed on its link.
+ */
+public class WriteProfile {
+    public static final int MIN_CHUNK_SIZE = 64;
+    public static final int MAX_CHUNK_SIZE = 4096;
+    public static final int DEFAULT_CHUNK_SIZE = 512;
+    public static final int MAX_DELAY_MS = 200;
+    public static final int DEFAULT_DELAY_MS = 5;
+
+    public int chunkSize = DEFAULT_CHUNK_SIZE;
+    public int delayMs = DEFAULT_DELAY_MS;
+    /**
+     * Smoothed link throughput, 0 until the first chunk has been measured
+     */
+    public double bytesPerSecond;
+    /**
+     * When false chunkSize and delayMs are used as configured and never tuned
+     */
+    public boolean adaptive = true;
+    /**
+     * Count of explicit settings of the stored profile this copy was taken
+     * from; kept in memory only
+     */
+    int version;
+
+    public WriteProfile copy() {
+        WriteProfile p = new WriteProfile();
+        p.version = version;
+        p.chunkSize = chunkSize;
+        p.delayMs = delayMs;
+        p.bytesPerSecond = bytesPerSecond;
+        p.adaptive = adaptive;
+        return p;
+    }
+
+    public String encode() {
+        return chunkSize + "," + delayMs + "," + Math.round(bytesPerSecond) + "," + (adaptive ? 1 : 0);
+    }
+
+    public static WriteProfile decode(String value) {
+        WriteProfile p = new WriteProfile();
+        if (value == null) return p;
+        String[] parts = value.split(",");
+        try {
+            if (parts.length > 0) p.chunkSize = clamp(Integer.parseInt(parts[0]), MIN_CHUNK_SIZE, MAX_CHUNK_SIZE);
+            if (parts.length > 1) p.delayMs = clamp(Integer.parseInt(parts[1]), 0, MAX_DELAY_MS);
+            if (parts.length > 2) p.bytesPerSecond = Long.parseLong(parts[2]);
+            if (parts.length > 3) p.adaptive = "1".equals(parts[3]);
+        } catch (NumberFormatException ignored) {
+            return new WriteProfile();
+        }
+        return p;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> ret = new HashMap<>();
+        ret.put("chunkSize", chunkSize);
+        ret.put("delay", delayMs);
+        ret.put("bytesPerSecond", (int) Math.round(bytesPerSecond));
+        ret.put("adaptive", adaptive);
+        return ret;
+    }
+
+    static int clamp(int value, int min, int max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+}
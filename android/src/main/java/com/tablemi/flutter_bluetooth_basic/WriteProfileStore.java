@@ -0,0 +1,79 @@
+package com.tablemi.flutter_bluetooth_basic;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the learned WriteProfile of every printer, keyed by MAC address,
+ * and persists it so a printer starts from its tuned values after restart.
+ * Explicit settings win over what a job running at the time learned: each
+ * one bumps the profile version, and job results taken from an older
+ * version are dropped.
+ */
+public class WriteProfileStore {
+    private static final String PREFS_NAME = "flutter_bluetooth_basic_write_profiles";
+
+    private final SharedPreferences mPrefs;
+    private final Map<String, WriteProfile> mProfiles = new HashMap<>();
+
+    /**
+     * @param context application context, or null to keep profiles in memory only
+     */
+    public WriteProfileStore(Context context) {
+        mPrefs = context == null ? null : context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Return a working copy of the profile of a device; pass it back to
+     * {@link #save(String, WriteProfile)} once the job is done.
+     */
+    public synchronized WriteProfile get(String address) {
+        return stored(address).copy();
+    }
+
+    private WriteProfile stored(String address) {
+        WriteProfile profile = mProfiles.get(address);
+        if (profile == null) {
+            profile = WriteProfile.decode(mPrefs == null ? null : mPrefs.getString(address, null));
+            mProfiles.put(address, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Store what a job learned, unless the profile was configured or reset
+     * since the job took its copy.
+     */
+    public synchronized void save(String address, WriteProfile profile) {
+        if (profile.version != stored(address).version) return;
+        put(address, profile);
+    }
+
+    /**
+     * Store an explicit setting; jobs running on an older copy no longer
+     * overwrite it.
+     */
+    public synchronized void configure(String address, WriteProfile profile) {
+        profile.version = stored(address).version + 1;
+        put(address, profile);
+    }
+
+    private void put(String address, WriteProfile profile) {
+        mProfiles.put(address, profile.copy());
+        if (mPrefs != null) {
+            mPrefs.edit().putString(address, profile.encode()).apply();
+        }
+    }
+
+    public synchronized void reset(String address) {
+        WriteProfile profile = new WriteProfile();
+        profile.version = stored(address).version + 1;
+        mProfiles.put(address, profile);
+        if (mPrefs != null) {
+            mPrefs.edit().remove(address).apply();
+        }
+    }
+}
@@ -99,23 +99,30 @@
        @try {
            NSDictionary *args = [call arguments];
 
-           NSMutableArray *bytes = [args objectForKey:@"bytes"];
-
-           NSNumber* lenBuf = [args objectForKey:@"length"];
-           int len = [lenBuf intValue];
-           char cArray[len];
-
-           for (int i = 0; i < len; ++i) {
-//               NSLog(@"** ind_%d (d): %@, %d", i, bytes[i], [bytes[i] charValue]);
-               cArray[i] = [bytes[i] charValue];
+           id bytes = [args objectForKey:@"bytes"];
+           NSData *data2;
+
+           if ([bytes isKindOfClass:[FlutterStandardTypedData class]]) {
+               data2 = [(FlutterStandardTypedData *)bytes data];
+           } else {
+               NSNumber* lenBuf = [args objectForKey:@"length"];
+               int len = [lenBuf intValue];
+               char cArray[len];
+
+               for (int i = 0; i < len; ++i) {
+//                   NSLog(@"** ind_%d (d): %@, %d", i, bytes[i], [bytes[i] charValue]);
+                   cArray[i] = [bytes[i] charValue];
+               }
+               data2 = [NSData dataWithBytes:cArray length:sizeof(cArray)];
            }
-           NSData *data2 = [NSData dataWithBytes:cArray length:sizeof(cArray)];
 //           NSLog(@"bytes in hex: %@", [data2 description]);
            [Manager write:data2];
-           result(nil);
+           result(@YES);
        } @catch(FlutterError *e) {
            result(e);
        }
+  } else {
+    result(FlutterMethodNotImplemented);
   }
 }
 
@@ -1,3 +1,5 @@
+import 'dart:typed_data';
+
 import 'package:json_annotation/json_annotation.dart';
 
 part 'bluetooth_device.g.dart';
@@ -8,12 +10,18 @@ class BluetoothDevice {
       {this.name,
         required this.address,
         this.type: 0,
-        this.connected: false});
+        this.connected: false,
+        this.rssi,
+        this.connectLatency});
 
   final String? name;
   final String address;
   final int type;
   final bool connected;
+  /// Signal strength of the last advertisement, null for bonded devices.
+  final int? rssi;
+  /// Time the last connect took in ms, only set for known devices.
+  final int? connectLatency;
 
   factory BluetoothDevice.fromJson(Map<String, dynamic> json) =>
       _$BluetoothDeviceFromJson(json);
@@ -24,6 +32,8 @@ class BluetoothDevice {
       address: map["address"]!,
       type: map["type"] ,
       connected: map["isConnected"] ?? false,
+      rssi: map["rssi"],
+      connectLatency: map["connectLatency"],
     );
   }
 }
@@ -48,6 +58,8 @@ class LineText {
   static const String TYPE_BARCODE = 'barcode';
   static const String TYPE_QRCODE = 'qrcode';
   static const String TYPE_IMAGE = 'image';
+  /// [content] is the key of a logo registered with `registerLogo`.
+  static const String TYPE_LOGO = 'logo';
   static const int ALIGN_LEFT = 0;
   static const int ALIGN_CENTER = 1;
   static const int ALIGN_RIGHT = 2;
@@ -69,3 +81,41 @@ class LineText {
 
   Map<String, dynamic> toJson() => _$LineTextToJson(this);
 }
+
+/// One receipt of a [BluetoothManager.printReceipts] batch: either [config]
+/// and [data], a registered [template] with its placeholder [values], or
+/// raw [bytes].
+class PrintJob {
+  PrintJob({this.config, this.data, this.copies = 1})
+      : template = null,
+        values = null,
+        bytes = null;
+
+  PrintJob.template(this.template, this.values, {this.copies = 1})
+      : config = null,
+        data = null,
+        bytes = null;
+
+  PrintJob.bytes(List<int> this.bytes, {this.copies = 1})
+      : config = null,
+        data = null,
+        template = null,
+        values = null;
+
+  final Map<String, dynamic>? config;
+  final List<LineText>? data;
+  final String? template;
+  final Map<String, dynamic>? values;
+  final List<int>? bytes;
+  final int copies;
+
+  Map<String, dynamic> toJson() => {
+        if (config != null) 'config': config,
+        if (data != null) 'data': data!.map((m) => m.toJson()).toList(),
+        if (template != null) 'template': template,
+        if (values != null) 'values': values,
+        if (bytes != null)
+          'bytes': bytes is Uint8List ? bytes : Uint8List.fromList(bytes!),
+        'copies': copies,
+      };
+}
@@ -10,7 +10,9 @@ BluetoothDevice _$BluetoothDeviceFromJson(Map<String, dynamic> json) {
   return BluetoothDevice(
       name: json['name'] as String?, address: json['address'] as String,
       type: json['type'] as int,
-      connected: json['connected'] as bool);
+      connected: json['connected'] as bool,
+      rssi: json['rssi'] as int?,
+      connectLatency: json['connectLatency'] as int?);
 }
 Map<String, dynamic> _$BluetoothDeviceToJson(BluetoothDevice instance) {
   final val = <String, dynamic>{};
@@ -25,6 +27,8 @@ Map<String, dynamic> _$BluetoothDeviceToJson(BluetoothDevice instance) {
   writeNotNull('address', instance.address);
   writeNotNull('type', instance.type);
   writeNotNull('connected', instance.connected);
+  writeNotNull('rssi', instance.rssi);
+  writeNotNull('connectLatency', instance.connectLatency);
   return val;
 }
 
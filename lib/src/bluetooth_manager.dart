@@ -1,4 +1,6 @@
 import 'dart:async';
+import 'dart:io' show Platform;
+import 'dart:typed_data';
 
 import 'package:flutter/services.dart';
 import 'package:rxdart/rxdart.dart';
@@ -11,10 +13,20 @@ class BluetoothManager {
   static const int CONNECTED = 1;
   static const int DISCONNECTED = 0;
 
+  /// Scan modes of [scan], the Android ScanSettings values.
+  static const int SCAN_MODE_OPPORTUNISTIC = -1;
+  static const int SCAN_MODE_LOW_POWER = 0;
+  static const int SCAN_MODE_BALANCED = 1;
+  static const int SCAN_MODE_LOW_LATENCY = 2;
+
   static const MethodChannel _channel =
       const MethodChannel('$NAMESPACE/methods');
   static const EventChannel _stateChannel =
       const EventChannel('$NAMESPACE/state');
+  static const EventChannel _metricsChannel =
+      const EventChannel('$NAMESPACE/metrics');
+  static const EventChannel _jobChannel =
+      const EventChannel('$NAMESPACE/jobs');
   Stream<MethodCall> get _methodStream => _methodStreamController.stream;
   final StreamController<MethodCall> _methodStreamController =
       StreamController.broadcast();
@@ -28,6 +40,13 @@ class BluetoothManager {
 
   static BluetoothManager _instance = BluetoothManager._();
 
+  // Print and write jobs waiting for their outcome, by job id
+  final Map<int, Completer<dynamic>> _jobs = {};
+  int _lastJobId = 0;
+  StreamSubscription? _jobSubscription;
+  late final Stream<dynamic> _jobEvents =
+      _jobChannel.receiveBroadcastStream();
+
   static BluetoothManager get instance => _instance;
 
   // Future<bool> get isAvailable async =>
@@ -57,8 +76,26 @@ class BluetoothManager {
 
   /// Starts a scan for Bluetooth Low Energy devices
   /// Timeout closes the stream after a specified [Duration]
+  ///
+  /// The platform side reports each device once and then only when its name
+  /// changes or its RSSI moves by [rssiDelta] dBm, batched every
+  /// [batchInterval].
+  ///
+  /// On Android, [addresses], [serviceUuids] and [name] are matched by the
+  /// Bluetooth controller; a device matching any of them is reported.
+  /// [namePrefix] further restricts the results by name. [scanMode] is one
+  /// of the SCAN_MODE_ constants, and [reportDelay] lets the controller
+  /// collect results and deliver them in batches when it supports it.
   Stream<BluetoothDevice> scan({
     Duration? timeout,
+    Duration batchInterval = const Duration(milliseconds: 250),
+    int rssiDelta = 5,
+    List<String>? addresses,
+    List<String>? serviceUuids,
+    String? name,
+    String? namePrefix,
+    int scanMode = SCAN_MODE_LOW_LATENCY,
+    Duration? reportDelay,
   }) async* {
     if (_isScanning.value == true) {
       // throw Exception('Another scan is already in progress.');
@@ -75,9 +112,20 @@ class BluetoothManager {
 
     // Clear scan results list
     _scanResults.add(<BluetoothDevice>[]);
+    // Position of every device in the results list, by address
+    final index = <String, int>{};
 
     try {
-      await _channel.invokeMethod('startScan');
+      await _channel.invokeMethod('startScan', {
+        'interval': batchInterval.inMilliseconds,
+        'rssiDelta': rssiDelta,
+        'addresses': addresses,
+        'serviceUuids': serviceUuids,
+        'name': name,
+        'namePrefix': namePrefix,
+        'scanMode': scanMode,
+        'reportDelay': reportDelay?.inMilliseconds,
+      });
     } catch (e) {
       _stopScanPill.add(null);
       _isScanning.add(false);
@@ -85,37 +133,75 @@ class BluetoothManager {
     }
 
     yield* BluetoothManager.instance._methodStream
-        .where((m) => m.method == "ScanResult")
-        .map((m) => m.arguments)
+        .where((m) => m.method == "ScanResults" || m.method == "ScanResult")
         .takeUntil(Rx.merge(killStreams))
         .doOnDone(stopScan)
-        .map((map) {
-      final device = BluetoothDevice.fromMap(Map<String, dynamic>.from(map));
-      final List<BluetoothDevice>? list = _scanResults.value;
-      int newIndex = -1;
-      list!.asMap().forEach((index, e) {
-        if (e.address == device.address) {
-          newIndex = index;
+        .expand((m) {
+      final List maps =
+          m.method == "ScanResults" ? m.arguments : [m.arguments];
+      final devices = maps
+          .map((map) => BluetoothDevice.fromMap(Map<String, dynamic>.from(map)))
+          .toList();
+      final List<BluetoothDevice> list = _scanResults.value!;
+      for (final device in devices) {
+        final i = index[device.address];
+        if (i != null) {
+          list[i] = device;
+        } else {
+          index[device.address] = list.length;
+          list.add(device);
         }
-      });
-
-      if (newIndex != -1) {
-        list[newIndex] = device;
-      } else {
-        list.add(device);
       }
       _scanResults.add(list);
-      return device;
+      return devices;
     });
   }
 
   Future startScan({
     Duration? timeout,
+    Duration batchInterval = const Duration(milliseconds: 250),
+    int rssiDelta = 5,
+    List<String>? addresses,
+    List<String>? serviceUuids,
+    String? name,
+    String? namePrefix,
+    int scanMode = SCAN_MODE_LOW_LATENCY,
+    Duration? reportDelay,
   }) async {
-    await scan(timeout: timeout).drain();
+    await scan(
+            timeout: timeout,
+            batchInterval: batchInterval,
+            rssiDelta: rssiDelta,
+            addresses: addresses,
+            serviceUuids: serviceUuids,
+            name: name,
+            namePrefix: namePrefix,
+            scanMode: scanMode,
+            reportDelay: reportDelay)
+        .drain();
     return _scanResults.value;
   }
 
+  /// Scans for the first device matching [addresses], [serviceUuids],
+  /// [name] or [namePrefix], stops the scan as soon as it advertises and
+  /// connects to it. A single bonded address is connected without scanning.
+  /// Completes with the device map plus `found` and `connect` times in ms,
+  /// or fails with `not_found` after [timeout].
+  Future<dynamic> findAndConnect({
+    List<String>? addresses,
+    List<String>? serviceUuids,
+    String? name,
+    String? namePrefix,
+    Duration timeout = const Duration(seconds: 10),
+  }) =>
+      _channel.invokeMethod('findAndConnect', {
+        'addresses': addresses,
+        'serviceUuids': serviceUuids,
+        'name': name,
+        'namePrefix': namePrefix,
+        'timeout': timeout.inMilliseconds,
+      });
+
   /// Stops a scan for Bluetooth Low Energy devices
   Future stopScan() async {
     await _channel.invokeMethod('stopScan');
@@ -139,36 +225,308 @@ class BluetoothManager {
     return result;
   }
 
-  Future<dynamic> connect(BluetoothDevice device) =>
-      _channel.invokeMethod('connect', device.toJson());
+  /// Returns the printers connected to before, remembered across app
+  /// starts with their last RSSI and connect latency, so they can be shown
+  /// and connected without a scan.
+  Future<List<BluetoothDevice>> getKnownDevices() async {
+    final List list = await (_channel.invokeMethod('getKnownDevices'));
+    return list.map((map) => BluetoothDevice.fromMap(map)).toList();
+  }
+
+  /// Removes [address] from the known printers.
+  Future<dynamic> forgetDevice(String address) =>
+      _channel.invokeMethod('forgetDevice', {'address': address});
+
+  /// Connects to [device], trying the secure, the insecure and the channel 1
+  /// RFCOMM socket in turn. Fails with `connect_timeout` after [timeout]
+  /// (see [setConnectTimeout]) and with `connect_error` when the printer
+  /// refuses or [cancelConnect] is called.
+  ///
+  /// On Android the address may also name a network printer,
+  /// `tcp://host[:port]` with port 9100 by default and IPv6 hosts in
+  /// brackets when a port follows, `tcp://[fe80::1]:9100`, or an in-memory test
+  /// printer, `loopback://name[?rate=bytesPerSecond]`. Every method taking
+  /// an address accepts these.
+  Future<dynamic> connect(BluetoothDevice device, {Duration? timeout}) =>
+      _channel.invokeMethod('connect', {
+        ...device.toJson(),
+        if (timeout != null) 'timeout': timeout.inMilliseconds,
+      });
+
+  /// Aborts a connect to [address] in progress.
+  Future<dynamic> cancelConnect(String address) =>
+      _channel.invokeMethod('cancelConnect', {'address': address});
+
+  /// Sets how long a connect may take before it fails, 10 seconds by default.
+  Future<dynamic> setConnectTimeout(Duration timeout) =>
+      _channel.invokeMethod('setConnectTimeout', {'timeout': timeout.inMilliseconds});
 
   Future<dynamic> disconnect() => _channel.invokeMethod('disconnect');
 
   Future<dynamic> destroy() => _channel.invokeMethod('destroy');
 
-  Future<dynamic> writeData(String address,List<int> bytes) {
-    Map<String, Object> args = Map();
-    args['bytes'] = bytes;
-    args['address']=address;
-    args['length'] = bytes.length;
+  /// Opens and pools the connection to [address] so the next job
+  /// sent to it does not pay the connect latency.
+  Future<dynamic> preconnect(String address) =>
+      _channel.invokeMethod('preconnect', {'address': address});
+
+  /// Closes the pooled connection to [address], or all of them when omitted.
+  Future<dynamic> release([String? address]) =>
+      _channel.invokeMethod('release', {'address': address});
+
+  /// Sets how long an unused pooled connection stays open.
+  /// [Duration.zero] keeps connections open until [release] is called.
+  Future<dynamic> setIdleTimeout(Duration timeout) => _channel
+      .invokeMethod('setIdleTimeout', {'timeout': timeout.inMilliseconds});
+
+  /// Sets how long a print waits for the printer to report that it has
+  /// processed the job. Without an answer the printer is asked for its
+  /// real-time status, and paper out or an open cover fail the print with
+  /// error codes `paper_out` and `cover_open`.
+  Future<dynamic> setAckTimeout(Duration timeout) => _channel
+      .invokeMethod('setAckTimeout', {'timeout': timeout.inMilliseconds});
+
+  /// Returns the learned write profile of the printer at [address]:
+  /// `chunkSize`, `delay` (ms), `bytesPerSecond` and `adaptive`.
+  Future<dynamic> getWriteProfile(String address) =>
+      _channel.invokeMethod('getWriteProfile', {'address': address});
+
+  /// Overrides the chunk size and inter-chunk [delay] (ms) used when
+  /// writing to [address]. With [adaptive] false the values are kept as
+  /// set, otherwise they are the starting point for tuning.
+  /// [reset] forgets everything learned for the printer.
+  Future<dynamic> setWriteProfile(String address,
+          {int? chunkSize, int? delay, bool? adaptive, bool reset = false}) =>
+      _channel.invokeMethod('setWriteProfile', {
+        'address': address,
+        'chunkSize': chunkSize,
+        'delay': delay,
+        'adaptive': adaptive,
+        'reset': reset,
+      });
+
+  /// Phase timings of every print job as it finishes: `queue`, `decode`,
+  /// `encode` (including the image decode and `rasterize` it triggers),
+  /// `connect`, `write` and `job` in ms, plus `bytes`, `chunks`,
+  /// `bytesPerSecond`, `failed` and `bytesSaved`, the image bytes that
+  /// compacting the raster kept off the wire.
+  Stream<dynamic> get printMetrics =>
+      _metricsChannel.receiveBroadcastStream();
+
+  /// Returns per-printer counters and fixed-bucket histograms of the print
+  /// phases, each with `count`, `sum`, `max`, `p50`, `p90`, `p99` in ms and
+  /// the bucket counts for `bucketBounds`. [reset] clears them after reading.
+  Future<dynamic> getMetrics({bool reset = false}) =>
+      _channel.invokeMethod('getMetrics', {'reset': reset});
+
+  /// Returns the hit/miss counters and size of the native raster cache
+  /// used for receipt images.
+  Future<dynamic> getRasterCacheStats() =>
+      _channel.invokeMethod('getRasterCacheStats');
+
+  /// Sets the byte budget of the raster cache; least recently used
+  /// images are evicted beyond it.
+  Future<dynamic> configureRasterCache({required int maxBytes}) =>
+      _channel.invokeMethod('configureRasterCache', {'maxBytes': maxBytes});
+
+  /// Drops all cached image rasters.
+  Future<dynamic> clearRasterCache() =>
+      _channel.invokeMethod('clearRasterCache');
+
+  /// Configures the native print workers. [parallelism] is how many
+  /// printers are served at the same time, [queueCapacity] how many jobs
+  /// may wait per printer before new ones are rejected.
+  Future<dynamic> configureScheduler({int? parallelism, int? queueCapacity}) =>
+      _channel.invokeMethod('configureScheduler', {
+        'parallelism': parallelism,
+        'queueCapacity': queueCapacity,
+      });
 
-    _channel.invokeMethod('writeData', args);
+  /// Stores a base64 image in the NV memory of the printer under a
+  /// two-character [key]. The upload is skipped when the printer already
+  /// holds the key with the same image unless [force] is set. Completes with false when the
+  /// printer has no NV graphics support; receipts then print the logo inline.
+  Future<dynamic> registerLogo(String address, String key, String content,
+          {int width = 576, String? dither, int? threshold, bool force = false}) =>
+      _channel.invokeMethod('registerLogo', {
+        'address': address,
+        'key': key,
+        'content': content,
+        'width': width,
+        'dither': dither,
+        'threshold': threshold,
+        'force': force,
+      });
 
-    return Future.value(true);
+  /// Deletes the logo stored under [key] from the printer.
+  Future<dynamic> removeLogo(String address, String key) =>
+      _channel.invokeMethod('removeLogo', {'address': address, 'key': key});
+
+  /// Status changes of every print and write job: `jobId`, `address` and
+  /// `status`, one of `queued`, `running`, `sent` (bytes flushed), `acked`
+  /// (the printer also answered the status query ending the job) or
+  /// `failed` with `code` and `error`. Finished jobs carry `bytes` and the
+  /// `result` their call completes with.
+  ///
+  /// Jobs are only tracked on Android; elsewhere the stream is empty.
+  Stream<dynamic> get jobStatus =>
+      Platform.isAndroid ? _jobEvents : const Stream<dynamic>.empty();
+
+  /// Runs a print or write call as a job. The returned future completes
+  /// with the result once the job is sent or acknowledged, so calls may be
+  /// issued back to back without awaiting each other.
+  ///
+  /// Only Android has the job channel and the print methods. On other
+  /// platforms [writeData] completes with the reply of the call and the
+  /// other print methods fail with an [UnsupportedError].
+  Future<dynamic> _job(String method, Map<String, dynamic> args) {
+    if (!Platform.isAndroid) {
+      if (method != 'writeData') {
+        return Future.error(
+            UnsupportedError('$method is only available on Android'));
+      }
+      return _channel.invokeMethod(method, args);
+    }
+    final id = ++_lastJobId;
+    final completer = Completer<dynamic>();
+    _jobs[id] = completer;
+    _jobSubscription ??= _jobEvents.listen(_onJobStatus, onError: (_) {});
+    args['jobId'] = id;
+    // The call completes along with the job; whichever arrives first wins
+    _channel.invokeMethod(method, args).then((value) {
+      if (_jobs.remove(id) != null) completer.complete(value);
+    }, onError: (Object error, StackTrace stackTrace) {
+      if (_jobs.remove(id) != null) completer.completeError(error, stackTrace);
+    });
+    return completer.future;
   }
 
+  void _onJobStatus(dynamic event) {
+    final status = event['status'];
+    if (status != 'sent' && status != 'acked' && status != 'failed') return;
+    final completer = _jobs.remove(event['jobId']);
+    if (completer == null) return;
+    if (status == 'failed') {
+      completer.completeError(
+          PlatformException(code: event['code'], message: event['error']));
+    } else {
+      completer.complete(event['result']);
+    }
+  }
+
+  /// Sends raw [bytes] to the device at [address] and completes with true
+  /// once they are sent, or acknowledged when they end with the GS r 1
+  /// status query. A [Uint8List] is passed to the platform side without
+  /// copying.
+  Future<dynamic> writeData(String address, List<int> bytes) =>
+      _job('writeData', {
+        'bytes': bytes is Uint8List ? bytes : Uint8List.fromList(bytes),
+        'address': address,
+        'length': bytes.length,
+      });
 
+  /// Prints a receipt laid out by [data] and completes with true once the
+  /// printer acknowledged it. Android only.
+  ///
+  /// Images are sent compacted: blank rows become paper feeds and blank
+  /// margins are cut from every band. Set `compactRaster: false` in
+  /// [config] for printers that mishandle the ESC J feed.
+  ///
+  /// Text is encoded as GB18030. For other printers list their code pages
+  /// in `codePages`, in order of preference, e.g. `['CP858', 'GB18030']`;
+  /// each char uses the first page that has it. An ESC t number other than
+  /// the Epson one is given as `'CP858:19'`.
   Future<dynamic> printReceipt(String address,
-      Map<String, dynamic> config, List<LineText> data) {
-    Map<String, Object> args = Map();
-    args['config'] = config;
-    args['address']=address;
-    args['data'] = data.map((m) {
-      return m.toJson();
-    }).toList();
-
-    _channel.invokeMethod('printReceipt', args);
-    return Future.value(true);
-  }
+          Map<String, dynamic> config, List<LineText> data) =>
+      _job('printReceipt', {
+        'config': config,
+        'address': address,
+        'data': data.map((m) => m.toJson()).toList(),
+      });
+
+  /// Prints a TSC label laid out by [data] on a label printer. [config]
+  /// takes `width`, `height` and `gap` in mm.
+  ///
+  /// Batches send the layout once. With `count` in [config] the printer
+  /// prints that many labels, and lines whose content is `{{counter}}`
+  /// show a TSPL counter starting at `counterStart` and advancing by
+  /// `counterStep`. With [values] one label is printed per entry, filling
+  /// the `{{name}}` placeholders of the lines: the layout is downloaded to
+  /// the printer as a TSPL program once, and per label only the filled-in
+  /// lines are sent.
+  Future<dynamic> printLabel(
+          String address, Map<String, dynamic> config, List<LineText> data,
+          {List<Map<String, dynamic>>? values}) =>
+      _job('printLabel', {
+        'address': address,
+        'config': config,
+        'data': data.map((m) => m.toJson()).toList(),
+        'values': values,
+      });
+
+  /// Prints a CPCL page laid out by [data] on a mobile printer. [config]
+  /// takes the page `width` and `height` in dots (height 0 fits the
+  /// content), `copies`, `resolution`, the text `font`, `fontSize` and
+  /// `fontHeight`, `lineSpacing` and `form` to feed to the next label.
+  /// Lines with `y` 0 are stacked below the previous one.
+  Future<dynamic> printCpcl(
+          String address, Map<String, dynamic> config, List<LineText> data) =>
+      _job('printCpcl', {
+        'address': address,
+        'config': config,
+        'data': data.map((m) => m.toJson()).toList(),
+      });
+
+  /// Prints [jobs] back to back over one connection: all jobs and copies
+  /// are streamed in one go and the printer's acknowledgements are matched
+  /// in order afterwards. Completes with one status map per job: `index`,
+  /// `status` (ok, error or skipped), `acknowledged`, `bytes`, `error` and,
+  /// when the printer reported it, the error `code`.
+  Future<dynamic> printReceipts(String address, List<PrintJob> jobs) =>
+      _job('printReceipts', {
+        'address': address,
+        'jobs': jobs.map((j) => j.toJson()).toList(),
+      });
+
+  /// Sends [job] to every printer in [addresses] concurrently. Completes
+  /// with `elapsed` (ms) and `printers`, mapping each address to its
+  /// `status`, `error`, `bytes` and `queued`/`connect`/`write`/`total` ms.
+  /// At most `parallelism` printers (see [configureScheduler]) are served at
+  /// the same time.
+  Future<dynamic> printToAll(List<String> addresses, PrintJob job) =>
+      _job('printToMany', {
+        'addresses': addresses,
+        'job': job.toJson(),
+      });
+
+  /// Like [printToAll] with a separate job per printer address.
+  Future<dynamic> printToMany(Map<String, PrintJob> jobs) =>
+      _job('printToMany', {
+        'jobs': jobs.map((address, job) => MapEntry(address, job.toJson())),
+      });
+
+  /// Compiles a receipt once on the native side. Line contents may hold
+  /// `{{name}}` placeholders that are filled in by [printTemplate]; all other
+  /// lines are encoded only at registration.
+  Future<dynamic> registerTemplate(
+          String id, Map<String, dynamic> config, List<LineText> data) =>
+      _channel.invokeMethod('registerTemplate', {
+        'id': id,
+        'config': config,
+        'data': data.map((m) => m.toJson()).toList(),
+      });
+
+  /// Drops the template [id], or all templates when [id] is null.
+  Future<dynamic> unregisterTemplate([String? id]) =>
+      _channel.invokeMethod('unregisterTemplate', {'id': id});
+
+  /// Prints template [id] with the placeholder [values].
+  Future<dynamic> printTemplate(
+          String id, String address, Map<String, dynamic> values) =>
+      _job('printTemplate', {
+        'id': id,
+        'address': address,
+        'values': values,
+      });
 
 }